@@ -0,0 +1,89 @@
+package labs.pm.data;
+
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * {@code AppendOnlyArray} is a growable array that threads append to
+ * without locking.
+ * <br>
+ * An append reserves its index with an atomic increment and publishes the
+ * element with a volatile write into a chunk. Chunk {@code k} holds
+ * {@code 16 << k} elements; chunks are never copied, so an element never
+ * moves once published. The append that reaches the middle of a chunk
+ * installs the next one, so appends rarely race to allocate a chunk.
+ * <br>
+ * Indexes below {@link #size()} whose append is still in progress read as
+ * {@code null}.
+ */
+class AppendOnlyArray<E> {
+
+    static final int FIRST_CHUNK_BITS = 4;
+    static final int FIRST_CHUNK = 1 << FIRST_CHUNK_BITS;
+    static final int CHUNKS = 31 - FIRST_CHUNK_BITS;
+    static final int MAX_SIZE = Integer.MAX_VALUE - FIRST_CHUNK;
+
+    private final AtomicInteger size = new AtomicInteger();
+    private final AtomicReferenceArray<AtomicReferenceArray<E>> chunks =
+            new AtomicReferenceArray<>(CHUNKS);
+
+    /**
+     * @return index of the appended element
+     */
+    int append(E element) {
+        Objects.requireNonNull(element);
+        int index = reserve(size);
+        int chunk = chunkOf(index);
+        int offset = offsetOf(index, chunk);
+        if (offset == chunkLength(chunk) >> 1 && chunk + 1 < CHUNKS) {
+            chunk(chunk + 1);
+        }
+        chunk(chunk).set(offset, element);
+        return index;
+    }
+
+    /**
+     * @return the element, or {@code null} while its append is in progress
+     */
+    E get(int index) {
+        Objects.checkIndex(index, size());
+        int chunk = chunkOf(index);
+        AtomicReferenceArray<E> elements = chunks.get(chunk);
+        return (elements == null) ? null : elements.get(offsetOf(index, chunk));
+    }
+
+    int size() {
+        return Math.min(size.get(), MAX_SIZE);
+    }
+
+    private AtomicReferenceArray<E> chunk(int chunk) {
+        AtomicReferenceArray<E> elements = chunks.get(chunk);
+        if (elements == null) {
+            chunks.compareAndSet(chunk, null, new AtomicReferenceArray<>(chunkLength(chunk)));
+            elements = chunks.get(chunk);
+        }
+        return elements;
+    }
+
+    static int reserve(AtomicInteger size) {
+        int index = size.getAndIncrement();
+        if (index < 0 || index >= MAX_SIZE) {
+            size.set(MAX_SIZE);
+            throw new IllegalStateException("Array is full");
+        }
+        return index;
+    }
+
+    static int chunkOf(int index) {
+        return 31 - Integer.numberOfLeadingZeros(index + FIRST_CHUNK) - FIRST_CHUNK_BITS;
+    }
+
+    static int offsetOf(int index, int chunk) {
+        return index + FIRST_CHUNK - (FIRST_CHUNK << chunk);
+    }
+
+    static int chunkLength(int chunk) {
+        return FIRST_CHUNK << chunk;
+    }
+}
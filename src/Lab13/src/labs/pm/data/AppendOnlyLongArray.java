@@ -0,0 +1,82 @@
+package labs.pm.data;
+
+import java.util.Arrays;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import static labs.pm.data.AppendOnlyArray.*;
+
+/**
+ * {@code AppendOnlyLongArray} is the primitive {@code long} counterpart of
+ * {@link AppendOnlyArray}, with the same chunk layout.
+ * <br>
+ * Slots store the complement of their value, so a slot that was reserved
+ * but not written yet reads as {@link #EMPTY}; {@code EMPTY} itself cannot
+ * be appended.
+ */
+class AppendOnlyLongArray {
+
+    static final long EMPTY = -1;
+
+    private final AtomicInteger size = new AtomicInteger();
+    private final AtomicReferenceArray<AtomicLongArray> chunks =
+            new AtomicReferenceArray<>(CHUNKS);
+
+    /**
+     * @return index of the appended value
+     */
+    int append(long value) {
+        if (value == EMPTY) {
+            throw new IllegalArgumentException("Value " + EMPTY + " cannot be stored");
+        }
+        int index = reserve(size);
+        int chunk = chunkOf(index);
+        int offset = offsetOf(index, chunk);
+        if (offset == chunkLength(chunk) >> 1 && chunk + 1 < CHUNKS) {
+            chunk(chunk + 1);
+        }
+        chunk(chunk).set(offset, ~value);
+        return index;
+    }
+
+    /**
+     * @return the value, or {@link #EMPTY} while its append is in progress
+     */
+    long get(int index) {
+        Objects.checkIndex(index, size());
+        int chunk = chunkOf(index);
+        AtomicLongArray values = chunks.get(chunk);
+        return (values == null) ? EMPTY : ~values.get(offsetOf(index, chunk));
+    }
+
+    int size() {
+        return Math.min(size.get(), MAX_SIZE);
+    }
+
+    /**
+     * @return published values in index order
+     */
+    long[] toArray() {
+        int size = size();
+        long[] result = new long[size];
+        int count = 0;
+        for (int i = 0; i < size; i++) {
+            long value = get(i);
+            if (value != EMPTY) {
+                result[count++] = value;
+            }
+        }
+        return (count == size) ? result : Arrays.copyOf(result, count);
+    }
+
+    private AtomicLongArray chunk(int chunk) {
+        AtomicLongArray values = chunks.get(chunk);
+        if (values == null) {
+            chunks.compareAndSet(chunk, null, new AtomicLongArray(chunkLength(chunk)));
+            values = chunks.get(chunk);
+        }
+        return values;
+    }
+}
@@ -0,0 +1,122 @@
+package labs.pm.data;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * {@code DirectArena} allocates blocks of bytes from direct
+ * {@link ByteBuffer ByteBuffers} and addresses them with {@code long}
+ * values.
+ * <br>
+ * The arena is a list of segments, each twice the size of the previous
+ * one up to 1 GiB. A block never straddles two segments and a segment is
+ * never copied, so the arena grows past the 2 GiB limit of one buffer and
+ * an address stays valid for the life of the arena. An address packs the
+ * segment number above the offset within the segment.
+ * <br>
+ * Allocation bumps the top of the current segment with compare-and-set;
+ * only adding a segment locks. The contents of a block must reach readers
+ * through a volatile write of its address.
+ */
+final class DirectArena {
+
+    private static final int OFFSET_BITS = 30;
+    private static final int MAX_SEGMENT = 1 << OFFSET_BITS;
+    private static final int MAX_SEGMENTS = 4096;
+
+    private final AtomicReferenceArray<Segment> segments =
+            new AtomicReferenceArray<>(MAX_SEGMENTS);
+    private volatile int current;
+
+    DirectArena(int firstSegment) {
+        segments.set(0, new Segment(Math.min(Math.max(firstSegment, 16), MAX_SEGMENT)));
+    }
+
+    /**
+     * @return address of a new block of {@code bytes} bytes
+     */
+    long allocate(int bytes) {
+        if (bytes <= 0 || bytes > MAX_SEGMENT) {
+            throw new IllegalArgumentException("Cannot allocate " + bytes + " bytes");
+        }
+        while (true) {
+            int index = current;
+            Segment segment = segments.get(index);
+            int top = segment.top.get();
+            if ((long) top + bytes > segment.buffer.capacity()) {
+                addSegment(index, bytes);
+            } else if (segment.top.compareAndSet(top, top + bytes)) {
+                return ((long) index << OFFSET_BITS) | top;
+            }
+        }
+    }
+
+    /**
+     * @return address of a new block holding the bytes
+     */
+    long write(byte[] bytes) {
+        long address = allocate(bytes.length);
+        buffer(address).duplicate().position(offset(address)).put(bytes);
+        return address;
+    }
+
+    byte[] read(long address, int length) {
+        byte[] bytes = new byte[length];
+        buffer(address).duplicate().position(offset(address)).get(bytes);
+        return bytes;
+    }
+
+    void putByte(long address, byte value) {
+        buffer(address).put(offset(address), value);
+    }
+
+    byte getByte(long address) {
+        return buffer(address).get(offset(address));
+    }
+
+    void putInt(long address, int value) {
+        buffer(address).putInt(offset(address), value);
+    }
+
+    int getInt(long address) {
+        return buffer(address).getInt(offset(address));
+    }
+
+    void putLong(long address, long value) {
+        buffer(address).putLong(offset(address), value);
+    }
+
+    long getLong(long address) {
+        return buffer(address).getLong(offset(address));
+    }
+
+    private synchronized void addSegment(int full, int bytes) {
+        if (current != full) {
+            return;
+        }
+        if (full + 1 == MAX_SEGMENTS) {
+            throw new IllegalStateException("Arena is full");
+        }
+        long size = Math.min(Math.max(2L * segments.get(full).buffer.capacity(), bytes), MAX_SEGMENT);
+        segments.set(full + 1, new Segment((int) size));
+        current = full + 1;
+    }
+
+    private ByteBuffer buffer(long address) {
+        return segments.get((int) (address >>> OFFSET_BITS)).buffer;
+    }
+
+    private static int offset(long address) {
+        return (int) address & (MAX_SEGMENT - 1);
+    }
+
+    private static final class Segment {
+        private final ByteBuffer buffer;
+        private final AtomicInteger top = new AtomicInteger();
+
+        private Segment(int capacity) {
+            buffer = ByteBuffer.allocateDirect(capacity);
+        }
+    }
+}
@@ -11,10 +11,14 @@ public final class Drink extends Product{
 
     @Override
     public Product applyRating(Rating newRating) {
-        return new Drink(getId(), getName(), getPrice(), newRating);
+        return new Drink(this, newRating);
     }
 
     Drink(int id, String name, BigDecimal price, Rating rating) {
         super(id, name, price, rating);
     }
+
+    private Drink(Drink drink, Rating rating) {
+        super(drink, rating);
+    }
 }
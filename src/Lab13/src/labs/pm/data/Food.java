@@ -14,20 +14,32 @@ public final class Food extends Product{
 
     @Override
     public Product applyRating(Rating newRating) {
-        return new Food(getId(), getName(), getPrice(),
-                newRating, bestBefore);
+        return new Food(this, newRating);
     }
 
     @Override
     public BigDecimal getDiscount() {
+        return isDiscountTime() ? super.getDiscount() : BigDecimal.ZERO;
+    }
+
+    @Override
+    long getDiscountCents() {
+        return isDiscountTime() ? super.getDiscountCents() : 0;
+    }
+
+    private static boolean isDiscountTime() {
         LocalTime now = LocalTime.now();
-        return (now.isAfter(LocalTime.of(17,30)) &&
-                now.isBefore(LocalTime.of(18,30)))
-                ? super.getDiscount() : BigDecimal.ZERO;
+        return now.isAfter(LocalTime.of(17,30)) &&
+                now.isBefore(LocalTime.of(18,30));
     }
 
     Food(int id, String name, BigDecimal price, Rating rating, LocalDate bestBefore) {
         super(id, name, price, rating);
         this.bestBefore = bestBefore;
     }
+
+    private Food(Food food, Rating rating) {
+        super(food, rating);
+        this.bestBefore = food.bestBefore;
+    }
 }
@@ -0,0 +1,127 @@
+package labs.pm.data;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * {@code IdBloomFilter} is a Bloom filter over product ids.
+ * <br>
+ * {@link #mightContain(int)} returning {@code false} means the id is
+ * definitely unknown, so the lookup can be rejected without touching the
+ * catalog. Callers report lookups that passed the filter but found
+ * nothing with {@link #recordFalsePositive()} to keep the observed false
+ * positive rate.
+ * <br>
+ * Bits are set with atomic updates, so ids may be added and queried
+ * concurrently without losing bits.
+ */
+public class IdBloomFilter {
+
+    private final AtomicLongArray bits;
+    private final int bitCount;
+    private final int hashCount;
+    private final int capacity;
+    private final AtomicInteger size = new AtomicInteger();
+
+    private final LongAdder queries = new LongAdder();
+    private final LongAdder negatives = new LongAdder();
+    private final LongAdder falsePositives = new LongAdder();
+
+    /**
+     * @param capacity number of ids the filter is sized for
+     * @param falsePositiveRate expected false positive rate at capacity
+     */
+    public IdBloomFilter(int capacity, double falsePositiveRate) {
+        this.capacity = Math.max(capacity, 1);
+        long bitCount = (long) Math.ceil(-this.capacity * Math.log(falsePositiveRate)
+                / (Math.log(2) * Math.log(2)));
+        this.bitCount = (int) Math.max(64, Math.min(bitCount, Integer.MAX_VALUE - 63));
+        this.hashCount = Math.max(1, (int) Math.round((double) this.bitCount / this.capacity * Math.log(2)));
+        this.bits = new AtomicLongArray((this.bitCount + 63) >>> 6);
+    }
+
+    public void add(int id) {
+        long hash = mix(id);
+        int h1 = (int) hash;
+        int h2 = (int) (hash >>> 32);
+        for (int i = 0; i < hashCount; i++) {
+            int bit = Math.floorMod(h1 + i * h2, bitCount);
+            bits.getAndAccumulate(bit >>> 6, 1L << bit, (word, mask) -> word | mask);
+        }
+        size.incrementAndGet();
+    }
+
+    public boolean mightContain(int id) {
+        queries.increment();
+        long hash = mix(id);
+        int h1 = (int) hash;
+        int h2 = (int) (hash >>> 32);
+        for (int i = 0; i < hashCount; i++) {
+            int bit = Math.floorMod(h1 + i * h2, bitCount);
+            if ((bits.get(bit >>> 6) & (1L << bit)) == 0) {
+                negatives.increment();
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public void recordFalsePositive() {
+        falsePositives.increment();
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    public int getSize() {
+        return size.get();
+    }
+
+    public long getQueries() {
+        return queries.sum();
+    }
+
+    /**
+     * @return number of lookups rejected as definite misses
+     */
+    public long getNegatives() {
+        return negatives.sum();
+    }
+
+    public long getFalsePositives() {
+        return falsePositives.sum();
+    }
+
+    /**
+     * @return share of lookups for unknown ids that passed the filter
+     */
+    public double getFalsePositiveRate() {
+        long falsePositives = getFalsePositives();
+        long misses = falsePositives + getNegatives();
+        return (misses == 0) ? 0 : (double) falsePositives / misses;
+    }
+
+    /**
+     * @return false positive rate expected from the current fill
+     */
+    public double getExpectedFalsePositiveRate() {
+        return Math.pow(1 - Math.exp(-(double) hashCount * getSize() / bitCount), hashCount);
+    }
+
+    @Override
+    public String toString() {
+        return "IdBloomFilter{size=" + getSize() + ", queries=" + getQueries()
+                + ", negatives=" + getNegatives()
+                + ", falsePositives=" + getFalsePositives() + '}';
+    }
+
+    private static long mix(int id) {
+        long hash = id * 0x9E3779B97F4A7C15L;
+        hash ^= hash >>> 33;
+        hash *= 0xFF51AFD7ED558CCDL;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+}
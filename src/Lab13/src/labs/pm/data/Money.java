@@ -0,0 +1,35 @@
+package labs.pm.data;
+
+import java.math.BigDecimal;
+
+import static java.math.RoundingMode.HALF_UP;
+
+/**
+ * {@code Money} converts between {@link BigDecimal} amounts and the
+ * {@code long} cents used internally for prices, discounts and their
+ * aggregates.
+ */
+final class Money {
+
+    private Money() {
+    }
+
+    /**
+     * @return the amount in cents rounded {@code HALF_UP}
+     */
+    static long toCents(BigDecimal amount) {
+        return amount.setScale(2, HALF_UP).unscaledValue().longValueExact();
+    }
+
+    /**
+     * @return {@code amount * rate} in cents rounded {@code HALF_UP},
+     * computed from the exact product rather than from rounded cents
+     */
+    static long toCents(BigDecimal amount, BigDecimal rate) {
+        return toCents(amount.multiply(rate));
+    }
+
+    static BigDecimal fromCents(long cents) {
+        return BigDecimal.valueOf(cents, 2);
+    }
+}
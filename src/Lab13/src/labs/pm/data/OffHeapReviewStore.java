@@ -0,0 +1,67 @@
+package labs.pm.data;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * {@code OffHeapReviewStore} keeps reviews outside of the Java heap when
+ * {@code catalog.storage} is {@code offheap}.
+ * <br>
+ * Each review is a fixed width record in one {@link DirectArena} and its
+ * comments are UTF-8 bytes in a separate text arena. A review is referred
+ * to by the {@code long} address of its record, so the
+ * {@link ReviewBuckets} of a product are primitive arrays and the garbage
+ * collector has no per-review objects to trace. {@link Review} objects
+ * are only created when a review is read; rating counts need no read at
+ * all, and indexing the comments only creates their {@code String}.
+ * <br>
+ * Only reviews are stored here. Products stay {@link Product} objects in
+ * the catalog tries, with their names and {@link java.math.BigDecimal}
+ * prices on the heap; fixed width product records are a follow-up. The
+ * store also replaces the review tier and the comment spill, so
+ * {@code tier.capacity} and {@code review.retention.bytes} do not apply
+ * to it.
+ * <br>
+ * Threads may add and read reviews concurrently.
+ */
+final class OffHeapReviewStore {
+
+    private static final int RATING = 0;
+    private static final int COMMENT_LENGTH = 4;
+    private static final int COMMENT = 8;
+    private static final int RECORD = 16;
+
+    private static final int NO_COMMENTS = -1;
+
+    private final DirectArena records = new DirectArena(64 * 1024);
+    private final DirectArena text = new DirectArena(256 * 1024);
+
+    /**
+     * @return address of the stored review
+     */
+    long add(Review review) {
+        String comments = review.getComments();
+        long record = records.allocate(RECORD);
+        records.putByte(record + RATING, (byte) review.getRating().ordinal());
+        if (comments == null) {
+            records.putInt(record + COMMENT_LENGTH, NO_COMMENTS);
+        } else {
+            byte[] bytes = comments.getBytes(StandardCharsets.UTF_8);
+            records.putInt(record + COMMENT_LENGTH, bytes.length);
+            records.putLong(record + COMMENT, (bytes.length == 0) ? 0 : text.write(bytes));
+        }
+        return record;
+    }
+
+    Review get(long record) {
+        return new Review(Rating.values()[records.getByte(record + RATING)],
+                getComments(record));
+    }
+
+    String getComments(long record) {
+        int length = records.getInt(record + COMMENT_LENGTH);
+        return (length == NO_COMMENTS) ? null
+                : (length == 0) ? ""
+                : new String(text.read(records.getLong(record + COMMENT), length),
+                        StandardCharsets.UTF_8);
+    }
+}
@@ -4,8 +4,6 @@ import java.io.Serializable;
 import java.math.BigDecimal;
 import java.time.LocalDate;
 
-import static java.math.RoundingMode.HALF_UP;
-
 /**
  * {@code Product} class represents properties and behaviours of
  * product objects in the Product Management System.
@@ -28,6 +26,8 @@ public abstract class Product implements Rateable<Product> , Serializable {
     private int id;
     private String name;
     private BigDecimal price;
+    private long priceCents;
+    private long discountCents;
 
     private Rating rating;
 
@@ -36,6 +36,17 @@ public abstract class Product implements Rateable<Product> , Serializable {
         this.name = name;
         this.price = price;
         this.rating = rating;
+        this.priceCents = Money.toCents(price);
+        this.discountCents = Money.toCents(price, DISCOUNT_RATE);
+    }
+
+    Product(Product product, Rating rating) {
+        this.id = product.id;
+        this.name = product.name;
+        this.price = product.price;
+        this.rating = rating;
+        this.priceCents = product.priceCents;
+        this.discountCents = product.discountCents;
     }
 
     @Override
@@ -95,8 +106,21 @@ public abstract class Product implements Rateable<Product> , Serializable {
 //    }
 
     public BigDecimal getDiscount() {
-        // discount calculation logic will be added here
-        return  price.multiply(DISCOUNT_RATE).setScale(2,HALF_UP);
+        return Money.fromCents(getDiscountCents());
+    }
+
+    /**
+     * @return price in cents rounded {@code HALF_UP}
+     */
+    long getPriceCents() {
+        return priceCents;
+    }
+
+    /**
+     * @return discount in cents, the same value as {@link #getDiscount()}
+     */
+    long getDiscountCents() {
+        return discountCents;
     }
 
     @Override
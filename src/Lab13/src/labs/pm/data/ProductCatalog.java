@@ -0,0 +1,59 @@
+package labs.pm.data;
+
+import java.util.Arrays;
+import java.util.Set;
+import java.util.stream.Stream;
+
+/**
+ * {@code ProductCatalog} is an immutable snapshot of the current product
+ * versions: one {@link ProductTrie} of every product, plus one trie per
+ * {@link Rating}, so queries for some ratings only walk those products.
+ * <br>
+ * {@link #put(Product)} returns a new catalog that moves the product to
+ * the trie of its new rating; the manager swaps catalogs with
+ * compare-and-set, so the tries of one catalog always agree.
+ */
+final class ProductCatalog {
+
+    static final ProductCatalog EMPTY = new ProductCatalog(ProductTrie.EMPTY, emptyRatings());
+
+    private final ProductTrie all;
+    private final ProductTrie[] byRating;
+
+    private ProductCatalog(ProductTrie all, ProductTrie[] byRating) {
+        this.all = all;
+        this.byRating = byRating;
+    }
+
+    /**
+     * @return catalog mapping the id of the product to this version
+     */
+    ProductCatalog put(Product product) {
+        ProductTrie[] tries = Arrays.copyOf(byRating, byRating.length);
+        Product previous = all.get(product.getId());
+        if (previous != null && previous.getRating() != product.getRating()) {
+            int rating = previous.getRating().ordinal();
+            tries[rating] = tries[rating].remove(product.getId());
+        }
+        int rating = product.getRating().ordinal();
+        tries[rating] = tries[rating].put(product);
+        return new ProductCatalog(all.put(product), tries);
+    }
+
+    Stream<Product> stream() {
+        return all.stream();
+    }
+
+    /**
+     * @return products with one of the ratings, grouped by rating
+     */
+    Stream<Product> stream(Set<Rating> ratings) {
+        return ratings.stream().flatMap(rating -> byRating[rating.ordinal()].stream());
+    }
+
+    private static ProductTrie[] emptyRatings() {
+        ProductTrie[] tries = new ProductTrie[Rating.values().length];
+        Arrays.fill(tries, ProductTrie.EMPTY);
+        return tries;
+    }
+}
@@ -0,0 +1,179 @@
+package labs.pm.data;
+
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.function.IntPredicate;
+
+/**
+ * {@code ProductColumns} is a column oriented copy of a product catalog.
+ * <br>
+ * The copy is a point-in-time export: it is not updated when products
+ * are created or reviewed afterwards, so ratings and prices read from it
+ * are those of the moment it was taken.
+ * <br>
+ * Every product is a row, and each property is stored in its own
+ * primitive array, so scans and aggregates run over contiguous memory
+ * instead of following references to {@link Product}, {@link BigDecimal}
+ * and {@link Rating} objects. Prices are kept in cents rounded
+ * {@code HALF_UP}.
+ * <br>
+ * {@link Food} and {@link Drink} objects are only created on demand by
+ * {@link #getProduct(int)}.
+ */
+public class ProductColumns {
+
+    private static final byte DRINK = 0;
+    private static final byte FOOD = 1;
+
+    private int size;
+    private int[] ids;
+    private String[] names;
+    private long[] priceCents;
+    private byte[] ratings;
+    private byte[] types;
+    private long[] bestBefore;
+
+    public ProductColumns() {
+        this(16);
+    }
+
+    public ProductColumns(int capacity) {
+        capacity = Math.max(capacity, 1);
+        ids = new int[capacity];
+        names = new String[capacity];
+        priceCents = new long[capacity];
+        ratings = new byte[capacity];
+        types = new byte[capacity];
+        bestBefore = new long[capacity];
+    }
+
+    public ProductColumns(Collection<Product> products) {
+        this(products.size());
+        products.forEach(this::add);
+    }
+
+    /**
+     * @return row number of the added product
+     */
+    public int add(Product product) {
+        if (size == ids.length) {
+            grow();
+        }
+        int row = size++;
+        ids[row] = product.getId();
+        names[row] = product.getName();
+        priceCents[row] = product.getPriceCents();
+        ratings[row] = (byte) product.getRating().ordinal();
+        if (product instanceof Food) {
+            types[row] = FOOD;
+            bestBefore[row] = product.getBestBefore().toEpochDay();
+        } else {
+            types[row] = DRINK;
+        }
+        return row;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int getId(int row) {
+        return ids[checkRow(row)];
+    }
+
+    public long getPriceCents(int row) {
+        return priceCents[checkRow(row)];
+    }
+
+    public Rating getRating(int row) {
+        return Rating.values()[ratings[checkRow(row)]];
+    }
+
+    public boolean isFood(int row) {
+        return types[checkRow(row)] == FOOD;
+    }
+
+    public Product getProduct(int row) {
+        checkRow(row);
+        BigDecimal price = Money.fromCents(priceCents[row]);
+        Rating rating = Rating.values()[ratings[row]];
+        return (types[row] == FOOD)
+                ? new Food(ids[row], names[row], price, rating,
+                        LocalDate.ofEpochDay(bestBefore[row]))
+                : new Drink(ids[row], names[row], price, rating);
+    }
+
+    /**
+     * @return rows matching the filter, in row order
+     */
+    public int[] findRows(IntPredicate filter) {
+        int[] rows = new int[size];
+        int count = 0;
+        for (int row = 0; row < size; row++) {
+            if (filter.test(row)) {
+                rows[count++] = row;
+            }
+        }
+        return Arrays.copyOf(rows, count);
+    }
+
+    /**
+     * @return rows priced from {@code minCents} (inclusive) to
+     * {@code maxCents} (exclusive)
+     */
+    public int[] findRowsByPrice(long minCents, long maxCents) {
+        return findRows(row -> priceCents[row] >= minCents && priceCents[row] < maxCents);
+    }
+
+    /**
+     * @return rows of food that is best before a date from {@code from}
+     * to {@code to}, both inclusive
+     */
+    public int[] findRowsExpiring(LocalDate from, LocalDate to) {
+        long fromDay = from.toEpochDay();
+        long toDay = to.toEpochDay();
+        return findRows(row -> types[row] == FOOD
+                && bestBefore[row] >= fromDay && bestBefore[row] <= toDay);
+    }
+
+    /**
+     * @return number of products per rating, indexed by rating ordinal
+     */
+    public int[] countByRating() {
+        int[] counts = new int[Rating.values().length];
+        for (int row = 0; row < size; row++) {
+            counts[ratings[row]]++;
+        }
+        return counts;
+    }
+
+    /**
+     * @return sum of prices in cents per rating, indexed by rating ordinal
+     */
+    public long[] sumPriceCentsByRating() {
+        long[] sums = new long[Rating.values().length];
+        for (int row = 0; row < size; row++) {
+            sums[ratings[row]] += priceCents[row];
+        }
+        return sums;
+    }
+
+    private int checkRow(int row) {
+        if (row < 0 || row >= size) {
+            throw new IndexOutOfBoundsException("Row " + row + " out of bounds for size " + size);
+        }
+        return row;
+    }
+
+    private void grow() {
+        int capacity = ids.length + (ids.length >> 1) + 1;
+        ids = Arrays.copyOf(ids, capacity);
+        names = Arrays.copyOf(names, capacity);
+        priceCents = Arrays.copyOf(priceCents, capacity);
+        ratings = Arrays.copyOf(ratings, capacity);
+        types = Arrays.copyOf(types, capacity);
+        bestBefore = Arrays.copyOf(bestBefore, capacity);
+    }
+}
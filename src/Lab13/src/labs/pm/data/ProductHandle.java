@@ -0,0 +1,139 @@
+package labs.pm.data;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/**
+ * {@code ProductHandle} is the stable holder of one product id in a
+ * {@link ProductManager}.
+ * <br>
+ * It references the current immutable {@link Product} version together
+ * with the product reviews and their rating aggregate. A rating update
+ * swaps the product reference, so callers may keep a handle and always
+ * see the latest version.
+ * <br>
+ * When the manager uses a {@link ReviewTier}, the reviews of a cold
+ * product may be evicted to disk; they are read back on the next access.
+ * <br>
+ * A handle created with a loader reads its reviews on first access,
+ * exactly once even when several threads access it at the same time.
+ * If the loader fails, the access fails and the next one retries.
+ * <br>
+ * Reviews are appended, the rating aggregate is updated and the product
+ * version is swapped without locking, so concurrent reviews of the same
+ * product never wait for each other; reading {@link #getProduct()} never
+ * locks. The handle lock only guards the first load of the reviews; with
+ * a tier, an append also waits while the tier reads back or evicts the
+ * reviews of the same product.
+ */
+public final class ProductHandle {
+
+    private static final AtomicReferenceFieldUpdater<ProductHandle, Product> PRODUCT =
+            AtomicReferenceFieldUpdater.newUpdater(ProductHandle.class, Product.class, "product");
+
+    private final int id;
+    private volatile Product product;
+    private volatile ReviewBuckets reviews;
+    private final RatingStats stats;
+    private final ReviewTier tier;
+    private volatile Supplier<ReviewBuckets> loader;
+
+    ProductHandle(Product product, ReviewBuckets reviews, ReviewTier tier) {
+        this.id = product.getId();
+        this.product = product;
+        this.reviews = reviews;
+        this.stats = new RatingStats(reviews);
+        this.tier = tier;
+    }
+
+    ProductHandle(Product product, Supplier<ReviewBuckets> loader, ReviewTier tier) {
+        this(product, new ReviewBuckets(), tier);
+        this.reviews = null;
+        this.loader = loader;
+    }
+
+    public int getId() {
+        return id;
+    }
+
+    public Product getProduct() {
+        return product;
+    }
+
+    /**
+     * @return copy of the reviews published so far
+     */
+    public List<Review> getReviews() {
+        return Collections.unmodifiableList(new ArrayList<>(reviews()));
+    }
+
+    public RatingHistogram getRatingHistogram() {
+        ensureLoaded();
+        return stats.getHistogram();
+    }
+
+    boolean compareAndSetProduct(Product expected, Product product) {
+        return PRODUCT.compareAndSet(this, expected, product);
+    }
+
+    ReviewBuckets reviews() {
+        ensureLoaded();
+        return (tier == null) ? reviews : tier.access(this);
+    }
+
+    /**
+     * @return reviews without marking the product as recently used
+     */
+    ReviewBuckets peekReviews() {
+        ensureLoaded();
+        return (tier == null) ? reviews : tier.peek(this);
+    }
+
+    /**
+     * Applies a change to the reviews; with a tier the change holds the
+     * tier lock of this product, so the reviews are not evicted half-way
+     * through it.
+     */
+    void updateReviews(Consumer<ReviewBuckets> update) {
+        if (tier == null) {
+            update.accept(reviews());
+        } else {
+            ensureLoaded();
+            tier.update(this, update);
+        }
+    }
+
+    ReviewBuckets residentReviews() {
+        return reviews;
+    }
+
+    void setResidentReviews(ReviewBuckets reviews) {
+        this.reviews = reviews;
+    }
+
+    RatingStats stats() {
+        ensureLoaded();
+        return stats;
+    }
+
+    private void ensureLoaded() {
+        if (loader != null) {
+            synchronized (this) {
+                Supplier<ReviewBuckets> pending = loader;
+                if (pending != null) {
+                    ReviewBuckets loaded = pending.get();
+                    stats.addAll(loaded);
+                    reviews = loaded;
+                    loader = null;
+                    if (tier != null) {
+                        tier.register(this);
+                    }
+                }
+            }
+        }
+    }
+}
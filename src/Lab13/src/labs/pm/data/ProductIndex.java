@@ -0,0 +1,122 @@
+package labs.pm.data;
+
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+/**
+ * {@code ProductIndex} maps primitive product ids to their
+ * {@link ProductHandle}.
+ * <br>
+ * Open addressing with linear probing, so lookups never box the id.
+ * A {@code null} value marks an empty slot.
+ * <br>
+ * Writers are serialized, while lookups and iteration never lock: a slot
+ * is published by a volatile write of its handle, and a resize publishes
+ * a complete new table, so readers see either the old or the new one.
+ */
+class ProductIndex {
+
+    private static final int MIN_CAPACITY = 16;
+
+    private volatile Table table;
+    private volatile int size;
+
+    ProductIndex() {
+        this(MIN_CAPACITY);
+    }
+
+    ProductIndex(int expectedSize) {
+        int capacity = MIN_CAPACITY;
+        while (capacity < expectedSize * 2) {
+            capacity <<= 1;
+        }
+        table = new Table(capacity);
+    }
+
+    ProductHandle get(int id) {
+        return table.get(id);
+    }
+
+    /**
+     * @return the handle already stored for the id, or {@code null} when
+     * the given handle was added
+     */
+    synchronized ProductHandle putIfAbsent(ProductHandle handle) {
+        Table current = table;
+        ProductHandle value = current.putIfAbsent(handle);
+        if (value == null && ++size * 4 > current.capacity() * 3) {
+            table = current.resize();
+        }
+        return value;
+    }
+
+    int size() {
+        return size;
+    }
+
+    Stream<ProductHandle> stream() {
+        return table.stream();
+    }
+
+    private static class Table {
+        private final int[] ids;
+        private final AtomicReferenceArray<ProductHandle> values;
+        private final int mask;
+
+        private Table(int capacity) {
+            ids = new int[capacity];
+            values = new AtomicReferenceArray<>(capacity);
+            mask = capacity - 1;
+        }
+
+        private int capacity() {
+            return values.length();
+        }
+
+        private ProductHandle get(int id) {
+            int slot = slot(id);
+            ProductHandle value;
+            while ((value = values.get(slot)) != null) {
+                if (ids[slot] == id) {
+                    return value;
+                }
+                slot = (slot + 1) & mask;
+            }
+            return null;
+        }
+
+        private ProductHandle putIfAbsent(ProductHandle handle) {
+            int id = handle.getId();
+            int slot = slot(id);
+            ProductHandle value;
+            while ((value = values.get(slot)) != null) {
+                if (ids[slot] == id) {
+                    return value;
+                }
+                slot = (slot + 1) & mask;
+            }
+            ids[slot] = id;
+            values.set(slot, handle);
+            return null;
+        }
+
+        private Table resize() {
+            Table resized = new Table(capacity() * 2);
+            stream().forEach(resized::putIfAbsent);
+            return resized;
+        }
+
+        private Stream<ProductHandle> stream() {
+            return IntStream.range(0, values.length())
+                    .mapToObj(values::get)
+                    .filter(Objects::nonNull);
+        }
+
+        private int slot(int id) {
+            int hash = id * 0x9E3779B9;
+            return (hash ^ (hash >>> 16)) & mask;
+        }
+    }
+}
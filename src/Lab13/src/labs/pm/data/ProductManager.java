@@ -3,8 +3,10 @@ package labs.pm.data;
 import java.io.*;
 import java.math.BigDecimal;
 import java.nio.charset.Charset;
+import java.nio.file.AtomicMoveNotSupportedException;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
 import java.nio.file.StandardOpenOption;
 import java.text.MessageFormat;
 import java.text.NumberFormat;
@@ -15,13 +17,28 @@ import java.time.format.DateTimeFormatter;
 import java.time.format.DateTimeParseException;
 import java.time.format.FormatStyle;
 import java.util.*;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.function.Predicate;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.stream.Collectors;
 
 public class ProductManager {
-    private Map<Product, List<Review>> products = new HashMap<>();
+    /**
+     * Guards changes to the set of products and the swap of the catalog
+     * state; reviews are appended without it, and readers never lock.
+     */
+    private final Object catalogLock = new Object();
     private Locale locale;
     private ResourceBundle resources;
     private DateTimeFormatter dateFormat;
@@ -42,10 +59,29 @@ public class ProductManager {
     private ResourceBundle config =
             ResourceBundle.getBundle("labs.pm.data.config");
 
-    private MessageFormat reviewFormat =
-            new MessageFormat(config.getString("review.data.format"));
-    private MessageFormat productFormat =
-            new MessageFormat(config.getString("product.data.format"));
+    // MessageFormat is not thread safe, so each loading thread parses with its own
+    private ThreadLocal<MessageFormat> reviewFormat = ThreadLocal.withInitial(() ->
+            new MessageFormat(config.getString("review.data.format")));
+    private ThreadLocal<MessageFormat> productFormat = ThreadLocal.withInitial(() ->
+            new MessageFormat(config.getString("product.data.format")));
+
+    private StringPool stringPool =
+            new StringPool(Integer.parseInt(config.getString("string.pool.size")));
+
+    private long reviewRetentionBytes =
+            Long.parseLong(config.getString("review.retention.bytes"));
+    private ReviewSpill reviewSpill;
+
+    private boolean lazyReviews =
+            Boolean.parseBoolean(config.getString("reviews.lazy.loading"));
+    private int loadParallelism =
+            Integer.parseInt(config.getString("data.load.parallelism"));
+
+    // heap keeps reviews as objects; offheap keeps them in direct memory,
+    // where they are neither spilled nor moved to the review tier.
+    // Products are kept on the heap in both modes
+    private boolean offHeapReviews =
+            "offheap".equals(config.getString("catalog.storage"));
 
 
     private Path reportsFolder =
@@ -55,12 +91,20 @@ public class ProductManager {
     private Path tempFolder =
             Path.of(config.getString("temp.folder"));
 
+    private ThreadPoolExecutor reportExecutor = createReportExecutor();
+
+    private double idFilterFalsePositiveRate =
+            Double.parseDouble(config.getString("id.filter.false.positive.rate"));
+
+    private volatile CatalogState state = newState(0, createReviewStore());
+
     public ProductManager(Locale locale) {
         this(locale.toLanguageTag());
     }
 
     public ProductManager(String languageTag) {
         changeLocale(languageTag);
+        checkStorageSettings();
         loadAllData();
     }
 
@@ -76,24 +120,37 @@ public class ProductManager {
     public Product createProduct(int id, String name,
                                  BigDecimal price, Rating rating, LocalDate bestBefore) {
         Product product = new Food(id, name, price, rating, bestBefore);
-        products.putIfAbsent(product, new ArrayList<>());
+        addProduct(product);
         return product;
     }
 
     public Product createProduct(int id, String name,
                                  BigDecimal price, Rating rating) {
         Product product = new Drink(id, name, price, rating);
-        products.putIfAbsent(product, new ArrayList<>());
+        addProduct(product);
         return product;
     }
 
+    private void addProduct(Product product) {
+        synchronized (catalogLock) {
+            CatalogState state = this.state;
+            ProductHandle handle = new ProductHandle(product,
+                    new ReviewBuckets(state.reviewStore), state.reviewTier);
+            if (state.products.putIfAbsent(handle) == null) {
+                index(state, handle);
+                publish(state, handle);
+                track(state, handle);
+                if (state.idFilter.getSize() >= state.idFilter.getCapacity()) {
+                    rebuildIdFilter(state);
+                } else {
+                    state.idFilter.add(product.getId());
+                }
+            }
+        }
+    }
+
     public Product findProduct(int id) throws ProductManagerException {
-        return products.keySet()
-                .stream()
-                .filter(p -> p.getId() == id)
-                .findFirst()
-                .orElseThrow(() ->
-                        new ProductManagerException("Product with id "+id+" not found"));
+        return findProductHandle(id).getProduct();
 //        Product result = null;
 //        for (Product product : products.keySet()) {
 //            if (product.getId() == id) {
@@ -104,34 +161,164 @@ public class ProductManager {
 //        return result;
     }
 
+    public ProductHandle findProductHandle(int id) throws ProductManagerException {
+        return findProductHandle(state, id);
+    }
+
+    private ProductHandle findProductHandle(CatalogState state, int id)
+            throws ProductManagerException {
+        if (!state.idFilter.mightContain(id)) {
+            throw new ProductManagerException("Product with id "+id+" not found");
+        }
+        ProductHandle handle = state.products.get(id);
+        if (handle == null) {
+            state.idFilter.recordFalsePositive();
+            throw new ProductManagerException("Product with id "+id+" not found");
+        }
+        return handle;
+    }
+
+    public IdBloomFilter getIdFilter() {
+        return state.idFilter;
+    }
+
+    public RatingHistogram getRatingHistogram(int id) throws ProductManagerException {
+        return findProductHandle(id).getRatingHistogram();
+    }
+
     public Product reviewProduct(int id, Rating rating, String comments) {
+        CatalogState state = this.state;
         try {
-            return reviewProduct(findProduct(id), rating, comments);
+            return addReviews(state, findProductHandle(state, id),
+                    List.of(new Review(rating, stringPool.intern(comments))));
         } catch (ProductManagerException e) {
             logger.log(Level.INFO, e.getMessage());
             return null;
+        } catch (UncheckedIOException ex) {
+            logger.log(Level.SEVERE,
+                    "Error reviewing product "+ex.getCause().getMessage(), ex);
+            return null;
         }
     }
 
     public Product reviewProduct(Product product, Rating rating, String comments) {
-        List<Review> reviews = products.get(product);
-        products.remove(product, reviews);
-        reviews.add(new Review(rating, comments));
-        product = product.applyRating(
-                Rateable.convert(
-                        (int)Math.round(
-                                reviews.stream()
-                                        .mapToInt(r -> r.getRating().ordinal())
-                                        .average()
-                                        .orElse(0))));
+        return reviewProduct(product.getId(), rating, comments);
+    }
+
+    /**
+     * Reviews the product of a held handle. A handle left over from before
+     * a reindex, such as a {@link #restoreData()}, is replaced with the
+     * current handle of its product id.
+     *
+     * @return the updated product, or {@code null} when the catalog no
+     * longer has a product with the id of the handle
+     */
+    public Product reviewProduct(ProductHandle handle, Rating rating, String comments) {
+        return addReviews(state, handle,
+                List.of(new Review(rating, stringPool.intern(comments))));
+    }
+
+    /**
+     * Reviews products in one batch. Items are grouped by product id, so
+     * each product receives all of its reviews in one append and has its
+     * rating recomputed once.
+     * <br>
+     * Items for unknown products or without a rating are not applied;
+     * they are reported in the result instead of being logged.
+     *
+     * @return the updated products and the failed items by batch position
+     */
+    public ReviewBatchResult reviewProducts(Collection<ProductReview> reviews) {
+        CatalogState state = this.state;
+        Map<ProductHandle, List<Review>> batches = new LinkedHashMap<>();
+        Map<Integer, ProductManagerException> failures = new LinkedHashMap<>();
+        int position = 0;
+        for (ProductReview review : reviews) {
+            try {
+                if (review.getRating() == null) {
+                    throw new ProductManagerException(
+                            "Review of product with id "+review.getId()+" has no rating");
+                }
+                batches.computeIfAbsent(findProductHandle(state, review.getId()),
+                        handle -> new ArrayList<>())
+                        .add(new Review(review.getRating(),
+                                stringPool.intern(review.getComments())));
+            } catch (ProductManagerException ex) {
+                failures.put(position, ex);
+            }
+            position++;
+        }
+        List<Product> products = new ArrayList<>(batches.size());
+        batches.forEach((handle, batch) -> products.add(addReviews(state, handle, batch)));
+        return new ReviewBatchResult(products, failures);
+    }
+
+    /**
+     * Appends the reviews to their rating buckets, each into a slot
+     * reserved atomically, then updates the rating aggregate and the
+     * review index of the state; none of these steps locks the product.
+     * <br>
+     * The reviews go to the handle of the state with the id of
+     * {@code held}, so a stale handle never writes postings for reviews
+     * the state does not have.
+     */
+    private Product addReviews(CatalogState state, ProductHandle held, List<Review> reviews) {
+        ProductHandle handle = state.products.get(held.getId());
+        if (handle == null) {
+            logger.log(Level.INFO, "Product with id "+held.getId()+" not found");
+            return null;
+        }
+        long[] postings = new long[reviews.size()];
+        handle.updateReviews(buckets -> {
+            for (int i = 0; i < postings.length; i++) {
+                Review review = reviews.get(i);
+                postings[i] = ReviewIndex.posting(handle.getId(),
+                        review.getRating(), buckets.append(review));
+            }
+        });
+        RatingStats stats = handle.stats();
+        for (int i = 0; i < postings.length; i++) {
+            Review review = reviews.get(i);
+            stats.add(review.getRating());
+            state.reviewIndex.add(postings[i], review.getComments());
+        }
+        retainReviews(handle);
 //        int sum = 0, i = 0;
 //        for (Review review : reviews) {
 //            sum += review.getRating().ordinal();
 //        }
 //        product = product.applyRating(Rateable.convert(
 //                Math.round((float) sum / reviews.size())));
-        products.put(product, reviews);
-        return product;
+        return updateRating(state, handle);
+    }
+
+    /**
+     * Derives the rating from the aggregate of the product and swaps the
+     * product version with compare-and-set, retrying until the version
+     * matches the latest aggregate.
+     */
+    private Product updateRating(CatalogState state, ProductHandle handle) {
+        while (true) {
+            Product previous = handle.getProduct();
+            Rating rating = Rateable.convert(handle.stats().getRoundedAverage());
+            if (previous.getRating() == rating) {
+                return previous;
+            }
+            if (handle.compareAndSetProduct(previous, previous.applyRating(rating))) {
+                publish(state, handle);
+            }
+        }
+    }
+
+    /**
+     * Puts the current version of the product into the catalog. The
+     * version is read inside the update, so a retry never publishes a
+     * version older than the one a concurrent update already published.
+     * Handles of another state are ignored.
+     */
+    private void publish(CatalogState state, ProductHandle handle) {
+        state.catalog.updateAndGet(current -> (state.products.get(handle.getId()) == handle)
+                ? current.put(handle.getProduct()) : current);
     }
 
     public void printProductReport(int id) {
@@ -146,19 +333,98 @@ public class ProductManager {
     }
 
     public void printProductReport(Product product) throws IOException {
-        List<Review> reviews = products.get(product);
-        Collections.sort(reviews);
+        try {
+            writeProductReport(product,
+                    state.products.get(product.getId()).getReviews(), formatter);
+        } catch (UncheckedIOException ex) {
+            throw ex.getCause();
+        }
+    }
+
+    public CompletableFuture<Path> printProductReportAsync(int id) {
+        try {
+            return printProductReportAsync(findProduct(id));
+        } catch (ProductManagerException ex) {
+            return CompletableFuture.failedFuture(ex);
+        }
+    }
+
+    /**
+     * Writes the report on the report executor. The reviews and the locale
+     * are captured when the report is submitted, so reviews added while it
+     * waits in the queue do not appear in it.
+     *
+     * @return future completed with the report file, or completed
+     * exceptionally with a {@code ProductManagerException} for an unknown
+     * product, the {@code IOException} of a failed review read or report
+     * write, or a
+     * {@code RejectedExecutionException} when the executor is saturated
+     */
+    public CompletableFuture<Path> printProductReportAsync(Product product) {
+        ProductHandle handle = state.products.get(product.getId());
+        if (handle == null) {
+            return CompletableFuture.failedFuture(new ProductManagerException(
+                    "Product with id "+product.getId()+" not found"));
+        }
+        List<Review> reviews;
+        try {
+            reviews = handle.getReviews();
+        } catch (RuntimeException ex) {
+            return CompletableFuture.failedFuture(
+                    (ex instanceof UncheckedIOException) ? ex.getCause() : ex);
+        }
+        ResourceFormatter formatter = this.formatter;
+        CompletableFuture<Path> report = new CompletableFuture<>();
+        try {
+            reportExecutor.execute(() -> {
+                try {
+                    report.complete(writeProductReport(product, reviews, formatter));
+                } catch (IOException | RuntimeException ex) {
+                    report.completeExceptionally(ex);
+                }
+            });
+        } catch (RejectedExecutionException ex) {
+            report.completeExceptionally(ex);
+        }
+        return report;
+    }
+
+    /**
+     * Writes the report to a uniquely named temporary file and moves it
+     * over the report file, so reports of the same product written at the
+     * same time never mix their lines and readers never see a partial
+     * report. The temporary file is created like the report itself, so the
+     * report keeps the default file permissions.
+     */
+    private Path writeProductReport(Product product, List<Review> reviews,
+                                    ResourceFormatter formatter) throws IOException {
         //StringBuilder txt = new StringBuilder();
         Path productFile =
                 reportsFolder.resolve(
                         MessageFormat.format(
                                 config.getString("report.file"), product.getId())
                 );
+        Path tempFile = productFile.resolveSibling(
+                productFile.getFileName()+"."+UUID.randomUUID()+".tmp");
+        try {
+            writeReport(tempFile, product, reviews, formatter);
+            try {
+                Files.move(tempFile, productFile,
+                        StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException ex) {
+                Files.move(tempFile, productFile, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            Files.deleteIfExists(tempFile);
+        }
+        return productFile;
+    }
 
+    private void writeReport(Path file, Product product, List<Review> reviews,
+                             ResourceFormatter formatter) throws IOException {
         try (PrintWriter out = new PrintWriter(
                 new OutputStreamWriter(
-                        Files.newOutputStream(productFile,
-                                StandardOpenOption.CREATE),
+                        Files.newOutputStream(file, StandardOpenOption.CREATE_NEW),
                         "UTF-8"))) {
             out.append(formatter.formatProduct(product)
                     +System.lineSeparator());
@@ -166,11 +432,11 @@ public class ProductManager {
                 out.append(formatter.getText("no.reviews")
                         +System.lineSeparator());
             } else {
-                out.append(reviews.stream()
-                        .map(r -> formatter.formatReview(r)
-                                +System.lineSeparator())
-                        .collect(Collectors.joining()));
+                reviews.forEach(r -> out.append(formatter.formatReview(r)
+                        +System.lineSeparator()));
             }
+        } catch (UncheckedIOException ex) {
+            throw ex.getCause();
         }
     }
 
@@ -178,8 +444,7 @@ public class ProductManager {
 //        List<Product> productList = new ArrayList<>(products.keySet());
 //        productList.sort(sorter);
         StringBuilder txt = new StringBuilder();
-        products.keySet()
-                .stream()
+        catalog().stream()
                 .sorted(sorter)
                 .filter(filter)
                 .forEach(p -> txt.append(formatter.formatProduct(p)+'\n'));
@@ -190,16 +455,125 @@ public class ProductManager {
         System.out.println(txt);
     }
 
-    public Map<String, String> getDiscounts() {
-        return products.keySet()
-                .stream()
+    public void printProducts(Set<Rating> ratings,
+                              Predicate<Product> filter, Comparator<Product> sorter) {
+        StringBuilder txt = new StringBuilder();
+        catalog().stream(ratings)
+                .filter(filter)
+                .sorted(sorter)
+                .forEach(p -> txt.append(formatter.formatProduct(p)+'\n'));
+        System.out.println(txt);
+    }
+
+    public List<Product> findTopProducts(Predicate<Product> filter,
+                                        Comparator<Product> sorter, int k) {
+        if (k <= 0) {
+            return new ArrayList<>();
+        }
+        PriorityQueue<Product> top = new PriorityQueue<>(sorter.reversed());
+        catalog().stream()
+                .filter(filter)
+                .forEach(product -> {
+                    top.offer(product);
+                    if (top.size() > k) {
+                        top.poll();
+                    }
+                });
+        List<Product> result = new ArrayList<>(top);
+        result.sort(sorter);
+        return result;
+    }
+
+    public List<Product> findProducts(Set<Rating> ratings) {
+        return catalog().stream(ratings)
+                .collect(Collectors.toList());
+    }
+
+    public List<Product> findProductsByPriceRange(BigDecimal min, BigDecimal max) {
+        return state.priceIndex.range(min, max);
+    }
+
+    public List<Product> findExpiringProducts(LocalDate from, LocalDate to) {
+        return state.expiryIndex.range(from, true, to, true);
+    }
+
+    public List<Product> findExpiringProducts(int days) {
+        LocalDate today = LocalDate.now();
+        return findExpiringProducts(today, today.plusDays(days));
+    }
+
+    public List<Product> findProductsByName(String prefix) {
+        return findProductsByName(prefix, Integer.MAX_VALUE);
+    }
+
+    public List<Product> findProductsByName(String prefix, int limit) {
+        String from = normalizeName(prefix);
+        return state.nameIndex.range(from, nextPrefix(from), limit);
+    }
+
+    public Map<Product, List<Review>> findReviewsWithAllTerms(String query, int limit) {
+        CatalogState state = this.state;
+        return groupByProduct(state, state.reviewIndex.searchAll(query, limit));
+    }
+
+    public Map<Product, List<Review>> findReviewsWithAnyTerm(String query, int limit) {
+        CatalogState state = this.state;
+        return groupByProduct(state, state.reviewIndex.searchAny(query, limit));
+    }
+
+    /**
+     * Skips postings whose product or review the state does not have.
+     */
+    private Map<Product, List<Review>> groupByProduct(CatalogState state, long[] postings) {
+        Map<Product, List<Review>> result = new LinkedHashMap<>();
+        for (long posting : postings) {
+            ProductHandle handle = state.products.get(ReviewIndex.productId(posting));
+            Review review = (handle == null) ? null : findReview(handle, posting);
+            if (review != null) {
+                result.computeIfAbsent(handle.getProduct(),
+                        product -> new ArrayList<>()).add(review);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @return the review of the posting, or {@code null} when the
+     * product has no review at its position
+     */
+    private Review findReview(ProductHandle handle, long posting) {
+        ReviewBuckets reviews = handle.reviews();
+        Rating rating = ReviewIndex.rating(posting);
+        int index = ReviewIndex.index(posting);
+        return (index < reviews.size(rating)) ? reviews.get(rating, index) : null;
+    }
+
+    /**
+     * @return a column oriented copy of the current catalog; later changes
+     * to the catalog are not reflected in it
+     */
+    public ProductColumns getProductColumns() {
+        return new ProductColumns(catalog().stream()
+                .collect(Collectors.toList()));
+    }
+
+    public StringPool getStringPool() {
+        return stringPool;
+    }
+
+    public Map<String, String> getDiscounts(Set<Rating> ratings) {
+        return catalog().stream(ratings)
                 .collect(
                         Collectors.groupingBy(
                                 product -> product.getRating().getStars(),
                                 Collectors.collectingAndThen(
-                                        Collectors.summingDouble(
-                                                product -> product.getDiscount().doubleValue()),
-                                        discount -> formatter.moneyFormat.format(discount))));
+                                        Collectors.summingLong(product -> product.getDiscountCents()),
+                                        cents -> formatter.formatMoney(
+                                                Money.fromCents(cents)))));
+    }
+
+    public Map<String, String> getDiscounts() {
+        return getDiscounts(EnumSet.allOf(Rating.class));
     }
 
 
@@ -212,8 +586,8 @@ public class ProductManager {
                     config.getString("temp.file"),Instant.now().toEpochMilli()));
             try (ObjectOutputStream out = new ObjectOutputStream(Files.newOutputStream(
                     tempFile, StandardOpenOption.CREATE))) {
-                out.writeObject(products);
-                products = new HashMap<>();
+                out.writeObject(snapshot());
+                reindex(new HashMap<>(), createReviewStore());
             }
         } catch(IOException ex) {
             logger.log(Level.SEVERE, "Error dumping data " + ex.getMessage(), ex);
@@ -229,7 +603,7 @@ public class ProductManager {
             try (ObjectInputStream in = new ObjectInputStream(Files.newInputStream(
                     tempFile,StandardOpenOption.DELETE_ON_CLOSE))) {
                 // logic that restores products object from the temp file
-                products = (HashMap)in.readObject();
+                reindex((HashMap)in.readObject(), createReviewStore());
             }
         } catch(Exception ex) {
             logger.log(Level.SEVERE,
@@ -238,16 +612,359 @@ public class ProductManager {
     }
 
     private void loadAllData() {
+        if (loadParallelism > 0) {
+            loadAllDataConcurrently();
+            return;
+        }
+        OffHeapReviewStore store = createReviewStore();
+        List<Product> catalog = new ArrayList<>();
         try {
-            products = Files.list(dataFolder)
+            catalog = Files.list(dataFolder)
                     .filter(file -> file.getFileName().toString().startsWith("product"))
                     .map(file -> loadProduct(file))
                     .filter(product -> product!=null)
+                    .collect(Collectors.toList());
+        } catch (IOException ex) {
+            logger.log(Level.SEVERE, "Error loading data "+ex.getMessage(),ex);
+        }
+        if (lazyReviews) {
+            reindexLazily(catalog);
+        } else {
+            reindex(catalog.stream()
                     .collect(Collectors.toMap(product -> product,
-                            product -> loadReviews(product)));
+                            product -> loadReviews(product, store))), store);
+        }
+    }
+
+    /**
+     * Loads each product file, together with its reviews unless they are
+     * loaded lazily, as a separate task, reading at most
+     * {@code data.load.parallelism} files at once. Files that fail to load
+     * are logged and skipped as in {@link #loadAllData()}.
+     */
+    private void loadAllDataConcurrently() {
+        List<Path> files = new ArrayList<>();
+        try {
+            files = Files.list(dataFolder)
+                    .filter(file -> file.getFileName().toString().startsWith("product"))
+                    .collect(Collectors.toList());
         } catch (IOException ex) {
             logger.log(Level.SEVERE, "Error loading data "+ex.getMessage(),ex);
         }
+        OffHeapReviewStore store = createReviewStore();
+        Semaphore permits = new Semaphore(loadParallelism);
+        ExecutorService executor = newLoadExecutor();
+        List<Future<Map.Entry<Product, List<Review>>>> tasks = new ArrayList<>();
+        List<Map.Entry<Product, List<Review>>> loaded = new ArrayList<>();
+        try {
+            for (Path file : files) {
+                tasks.add(executor.submit(() -> {
+                    permits.acquire();
+                    try {
+                        Product product = loadProduct(file);
+                        return (product == null) ? null : new AbstractMap.SimpleEntry<>(
+                                product, lazyReviews ? null : loadReviews(product, store));
+                    } finally {
+                        permits.release();
+                    }
+                }));
+            }
+            for (Future<Map.Entry<Product, List<Review>>> task : tasks) {
+                Map.Entry<Product, List<Review>> entry = task.get();
+                if (entry != null) {
+                    loaded.add(entry);
+                }
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            logger.log(Level.SEVERE, "Error loading data "+ex.getMessage(),ex);
+        } catch (ExecutionException ex) {
+            if (ex.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) ex.getCause();
+            }
+            logger.log(Level.SEVERE, "Error loading data "+ex.getMessage(),ex);
+        } finally {
+            executor.shutdownNow();
+        }
+        if (lazyReviews) {
+            reindexLazily(loaded.stream()
+                    .map(entry -> entry.getKey())
+                    .collect(Collectors.toList()));
+        } else {
+            reindex(loaded.stream()
+                    .collect(Collectors.toMap(entry -> entry.getKey(),
+                            entry -> entry.getValue())), store);
+        }
+    }
+
+    /**
+     * @return executor starting a virtual thread per task when the runtime
+     * provides one, otherwise a pool of {@code data.load.parallelism}
+     * threads
+     */
+    private ExecutorService newLoadExecutor() {
+        try {
+            return (ExecutorService) Executors.class
+                    .getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException ex) {
+            return Executors.newFixedThreadPool(loadParallelism);
+        }
+    }
+
+    /**
+     * @return product versions of one catalog snapshot, each with the
+     * reviews it has when the dump reaches it
+     */
+    private Map<Product, List<Review>> snapshot() {
+        CatalogState state = this.state;
+        Map<Product, List<Review>> snapshot = new HashMap<>();
+        state.catalog.get().stream().forEach(product -> {
+            ProductHandle handle = state.products.get(product.getId());
+            snapshot.put(product, new ArrayList<>(handle.peekReviews()));
+        });
+        return snapshot;
+    }
+
+    /**
+     * Builds a new catalog state from the products and their reviews and
+     * publishes it in one swap. Review lists read by
+     * {@link #loadReviews(Product, OffHeapReviewStore)} are reused, so they
+     * must have been read into {@code store}.
+     */
+    private void reindex(Map<Product, List<Review>> catalog, OffHeapReviewStore store) {
+        synchronized (catalogLock) {
+            CatalogState state = newState(catalog.size(), store);
+            catalog.forEach((product, reviews) -> {
+                ReviewBuckets buckets = (reviews instanceof ReviewBuckets)
+                        ? (ReviewBuckets) reviews : newReviewBuckets(store, reviews);
+                ProductHandle handle = new ProductHandle(product, buckets, state.reviewTier);
+                state.products.putIfAbsent(handle);
+                index(state, handle);
+                indexReviews(state, product.getId(), buckets);
+                retainReviews(handle);
+                track(state, handle);
+            });
+            rebuildCatalog(state);
+            rebuildIdFilter(state);
+            this.state = state;
+        }
+    }
+
+    /**
+     * Indexes products without reading their review files; the reviews
+     * of a product are loaded and indexed on first access.
+     */
+    private void reindexLazily(List<Product> catalog) {
+        synchronized (catalogLock) {
+            CatalogState state = newState(catalog.size(), createReviewStore());
+            catalog.forEach(product -> {
+                ProductHandle handle = new ProductHandle(product,
+                        () -> loadReviewsLazily(state, product), state.reviewTier);
+                if (state.products.putIfAbsent(handle) == null) {
+                    index(state, handle);
+                }
+            });
+            rebuildCatalog(state);
+            rebuildIdFilter(state);
+            this.state = state;
+        }
+    }
+
+    /**
+     * Reads, indexes and retains the reviews of a lazily loaded product. A
+     * read error fails the access and leaves the handle unloaded, so the
+     * reviews are read again on the next access instead of being lost.
+     */
+    private ReviewBuckets loadReviewsLazily(CatalogState state, Product product) {
+        ReviewBuckets reviews;
+        try {
+            reviews = readReviews(product, state.reviewStore);
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+        indexReviews(state, product.getId(), reviews);
+        retain(reviews);
+        return reviews;
+    }
+
+    /**
+     * Registers a handle created with its reviews in memory with the
+     * review tier, so it is evicted even if it is never accessed.
+     */
+    private void track(CatalogState state, ProductHandle handle) {
+        if (state.reviewTier != null) {
+            state.reviewTier.register(handle);
+        }
+    }
+
+    private CatalogState newState(int size, OffHeapReviewStore store) {
+        return new CatalogState(size, createReviewTier(), store,
+                new IdBloomFilter(0, idFilterFalsePositiveRate));
+    }
+
+    private ProductCatalog catalog() {
+        return state.catalog.get();
+    }
+
+    private void indexReviews(CatalogState state, int id, ReviewBuckets reviews) {
+        for (Rating rating : Rating.values()) {
+            for (int i = 0; i < reviews.size(rating); i++) {
+                state.reviewIndex.add(ReviewIndex.posting(id, rating, i),
+                        reviews.getComments(rating, i));
+            }
+        }
+    }
+
+    /**
+     * Builds the catalog from the handles inside the compare-and-set, so a
+     * product version published during the build makes it retry and read
+     * that version rather than be overwritten.
+     */
+    private void rebuildCatalog(CatalogState state) {
+        state.catalog.updateAndGet(current -> {
+            ProductCatalog rebuilt = ProductCatalog.EMPTY;
+            for (Iterator<ProductHandle> it = state.products.stream().iterator(); it.hasNext(); ) {
+                rebuilt = rebuilt.put(it.next().getProduct());
+            }
+            return rebuilt;
+        });
+    }
+
+    /**
+     * Sizes the id filter for twice the current catalog, leaving room for
+     * created products before the next rebuild.
+     */
+    private void rebuildIdFilter(CatalogState state) {
+        IdBloomFilter filter =
+                new IdBloomFilter(state.products.size() * 2, idFilterFalsePositiveRate);
+        state.products.stream().forEach(handle -> filter.add(handle.getId()));
+        state.idFilter = filter;
+    }
+
+    /**
+     * Spills the oldest review comments of the product to disk when they
+     * exceed {@code review.retention.bytes}; a negative budget keeps every
+     * comment in memory.
+     */
+    private void retainReviews(ProductHandle handle) {
+        if (reviewRetentionBytes < 0) {
+            return;
+        }
+        if (handle.reviews().getRetainedBytes() > reviewRetentionBytes) {
+            handle.updateReviews(this::retain);
+        }
+    }
+
+    private void retain(ReviewBuckets reviews) {
+        if (reviewRetentionBytes < 0 || reviews.getRetainedBytes() <= reviewRetentionBytes) {
+            return;
+        }
+        try {
+            reviews.spill(reviewRetentionBytes, reviewSpill());
+        } catch (IOException ex) {
+            logger.log(Level.WARNING, "Error spilling reviews "+ex.getMessage(), ex);
+        }
+    }
+
+    private synchronized ReviewSpill reviewSpill() throws IOException {
+        if (reviewSpill == null) {
+            Files.createDirectories(tempFolder);
+            reviewSpill = new ReviewSpill(
+                    tempFolder.resolve(config.getString("review.spill.file")));
+        }
+        return reviewSpill;
+    }
+
+    private void index(CatalogState state, ProductHandle handle) {
+        Product product = handle.getProduct();
+        state.priceIndex.add(product.getPrice(), handle);
+        state.nameIndex.add(normalizeName(product.getName()), handle);
+        if (product instanceof Food) {
+            state.expiryIndex.add(product.getBestBefore(), handle);
+        }
+    }
+
+    /**
+     * @return tier keeping at most {@code tier.capacity} review lists in
+     * memory, or {@code null} when the capacity is negative or the reviews
+     * are stored off-heap
+     */
+    /**
+     * Warns about memory settings that have no effect with off-heap reviews.
+     */
+    private void checkStorageSettings() {
+        if (!offHeapReviews) {
+            return;
+        }
+        if (Integer.parseInt(config.getString("tier.capacity")) >= 0) {
+            logger.log(Level.WARNING, "tier.capacity is ignored with catalog.storage=offheap");
+        }
+        if (reviewRetentionBytes >= 0) {
+            logger.log(Level.WARNING, "review.retention.bytes is ignored with catalog.storage=offheap");
+        }
+    }
+
+    private ReviewTier createReviewTier() {
+        int capacity = Integer.parseInt(config.getString("tier.capacity"));
+        return (capacity < 0 || offHeapReviews) ? null
+                : new ReviewTier(capacity, tempFolder, config.getString("tier.file"), () -> {
+                    try {
+                        return reviewSpill();
+                    } catch (IOException ex) {
+                        throw new UncheckedIOException(ex);
+                    }
+                });
+    }
+
+    /**
+     * @return store for the reviews of a new catalog when
+     * {@code catalog.storage} is {@code offheap}, otherwise {@code null}
+     */
+    private OffHeapReviewStore createReviewStore() {
+        return offHeapReviews ? new OffHeapReviewStore() : null;
+    }
+
+    private static ReviewBuckets newReviewBuckets(OffHeapReviewStore store,
+                                                  Collection<Review> reviews) {
+        ReviewBuckets buckets = new ReviewBuckets(store);
+        buckets.addAll(reviews);
+        return buckets;
+    }
+
+    /**
+     * @return pool of {@code report.threads} daemon threads queueing at most
+     * {@code report.queue.size} reports; further reports are rejected
+     */
+    private ThreadPoolExecutor createReportExecutor() {
+        int threads = Integer.parseInt(config.getString("report.threads"));
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads,
+                60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(Integer.parseInt(config.getString("report.queue.size"))),
+                task -> {
+                    Thread thread = new Thread(task, "product-report");
+                    thread.setDaemon(true);
+                    return thread;
+                });
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    private static String normalizeName(String name) {
+        return name.strip().toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * @return the smallest string greater than every string starting with
+     * {@code prefix}, or {@code null} when there is no such string
+     */
+    private static String nextPrefix(String prefix) {
+        for (int i = prefix.length() - 1; i >= 0; i--) {
+            char c = prefix.charAt(i);
+            if (c != Character.MAX_VALUE) {
+                return prefix.substring(0, i) + (char)(c + 1);
+            }
+        }
+        return null;
     }
 
     private Product loadProduct(Path file) {
@@ -263,39 +980,43 @@ public class ProductManager {
         return product;
     }
 
-    private List<Review> loadReviews(Product product) {
+    private ReviewBuckets loadReviews(Product product, OffHeapReviewStore store) {
         // reviews loading logic will be added here
-        List<Review> reviews = null;
+        ReviewBuckets reviews = null;
+        try {
+            reviews = readReviews(product, store);
+        } catch (IOException ex) {
+            logger.log(Level.WARNING, "Error loading reviews "+ex.getMessage());
+        }
+        return reviews;
+    }
+
+    private ReviewBuckets readReviews(Product product, OffHeapReviewStore store)
+            throws IOException {
         Path file =
                 reportsFolder.resolve(
                         MessageFormat.format(
                                 config.getString("reviews.data.file"), product.getId())
                 );
         if (Files.notExists(file)) {
-            reviews = new ArrayList<>();
-        } else{
-            try {
-                reviews = Files.lines(file, Charset.forName("UTF-8"))
-                        .map(text -> parseReview(text))
-                        .filter(review -> review != null)
-                        .collect(Collectors.toList());
-            } catch (IOException ex) {
-                logger.log(Level.WARNING, "Error loading reviews "+ex.getMessage());
-            }
+            return new ReviewBuckets(store);
         }
-        return reviews;
+        return Files.lines(file, Charset.forName("UTF-8"))
+                .map(text -> parseReview(text))
+                .filter(review -> review != null)
+                .collect(Collectors.toCollection(() -> new ReviewBuckets(store)));
     }
     private Review parseReview(String text) {
         Review review = null;
         try {
-            Object[] values = reviewFormat.parse(text);
+            Object[] values = reviewFormat.get().parse(text);
             // parse values and create review object
 //            reviewProduct(Integer.parseInt((String)values[0]),
 //                    Rateable.convert(Integer.parseInt((String)values[1])),
 //                    (String)values[2]);
             review = new Review(
                     Rateable.convert(Integer.parseInt((String)values[0])),
-                    (String)values[1]);
+                    stringPool.intern((String)values[1]));
         } catch (ParseException | NumberFormatException ex) {
             logger.log(Level.WARNING,
                     "Error parsing review "+text+" "+ex.getMessage());
@@ -309,10 +1030,10 @@ public class ProductManager {
         // product parsing logic will be added here
         Product product = null;
         try {
-            Object[] values = productFormat.parse(text);
+            Object[] values = productFormat.get().parse(text);
             // parse values and create product object
             int id = Integer.parseInt((String)values[1]);
-            String name = (String)values[2];
+            String name = stringPool.intern((String)values[2]);
             BigDecimal price =
                     BigDecimal.valueOf(Double.parseDouble((String)values[3]));
             Rating rating =
@@ -325,7 +1046,6 @@ public class ProductManager {
                 case "F":
                     // add code to parse best before date and create food object
                     LocalDate bestBefore = LocalDate.parse((String)values[5]);
-                    createProduct(id, name, price, rating, bestBefore);
                     product = new Food(id, name, price, rating, bestBefore);
                     break;
             }
@@ -338,6 +1058,39 @@ public class ProductManager {
         return product;
     }
 
+    /**
+     * One generation of the products and their indexes. A reindex builds a
+     * new state off to the side and publishes it with one volatile write,
+     * so a reader or writer that reads the state once uses the products,
+     * indexes and id filter of a single generation and never mixes them.
+     * Within a state, products are added under the catalog lock and
+     * reviews without locking.
+     */
+    private static final class CatalogState {
+        private final ProductIndex products;
+        /**
+         * Current product versions, also grouped by rating; readers take
+         * the catalog as an O(1) consistent snapshot.
+         */
+        private final AtomicReference<ProductCatalog> catalog =
+                new AtomicReference<>(ProductCatalog.EMPTY);
+        private final SortedProductIndex<BigDecimal> priceIndex = new SortedProductIndex<>();
+        private final SortedProductIndex<LocalDate> expiryIndex = new SortedProductIndex<>();
+        private final SortedProductIndex<String> nameIndex = new SortedProductIndex<>();
+        private final ReviewIndex reviewIndex = new ReviewIndex();
+        private final ReviewTier reviewTier;
+        private final OffHeapReviewStore reviewStore;
+        private volatile IdBloomFilter idFilter;
+
+        private CatalogState(int size, ReviewTier reviewTier,
+                             OffHeapReviewStore reviewStore, IdBloomFilter idFilter) {
+            this.products = new ProductIndex(size);
+            this.reviewTier = reviewTier;
+            this.reviewStore = reviewStore;
+            this.idFilter = idFilter;
+        }
+    }
+
     private static class ResourceFormatter {
 
         private Locale locale;
@@ -353,7 +1106,8 @@ public class ProductManager {
             moneyFormat = NumberFormat.getCurrencyInstance(locale);
         }
 
-        private String formatProduct(Product product) {
+        // NumberFormat is not thread safe and formatters are shared by report threads
+        private synchronized String formatProduct(Product product) {
             return MessageFormat.format(resources.getString("product"), product.getName(),
                     moneyFormat.format(product.getPrice()),
                     product.getRating().getStars(),
@@ -366,6 +1120,10 @@ public class ProductManager {
                     review.getComments());
         }
 
+        private synchronized String formatMoney(BigDecimal amount) {
+            return moneyFormat.format(amount);
+        }
+
         private String getText(String key) {
             return resources.getString(key);
         }
@@ -0,0 +1,36 @@
+package labs.pm.data;
+
+/**
+ * {@code ProductReview} is one item of a batch passed to
+ * {@link ProductManager#reviewProducts(java.util.Collection)}: a review for the
+ * product with the given id.
+ */
+public final class ProductReview {
+
+    private final int id;
+    private final Rating rating;
+    private final String comments;
+
+    public ProductReview(int id, Rating rating, String comments) {
+        this.id = id;
+        this.rating = rating;
+        this.comments = comments;
+    }
+
+    public int getId() {
+        return id;
+    }
+
+    public Rating getRating() {
+        return rating;
+    }
+
+    public String getComments() {
+        return comments;
+    }
+
+    @Override
+    public String toString() {
+        return "ProductReview{"+"id="+id+", rating="+rating+", comments="+comments+'}';
+    }
+}
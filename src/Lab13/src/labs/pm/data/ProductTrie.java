@@ -0,0 +1,148 @@
+package labs.pm.data;
+
+import java.util.Arrays;
+import java.util.stream.Stream;
+
+/**
+ * {@code ProductTrie} is a persistent map from product ids to product
+ * versions, implemented as a hash array mapped trie.
+ * <br>
+ * A trie is never modified: {@link #put(Product)} and {@link #remove(int)}
+ * return a new trie that shares every node off the path to the changed
+ * entry, so an update copies at most seven small nodes and holding a
+ * reference to a trie is a consistent snapshot of the catalog.
+ * <br>
+ * Each level consumes five bits of the mixed id. Mixing is a bijection on
+ * {@code int}, so two ids never share a full hash and no collision nodes
+ * are needed.
+ */
+final class ProductTrie {
+
+    static final ProductTrie EMPTY = new ProductTrie(Node.EMPTY);
+
+    private static final int BITS = 5;
+    private static final int MASK = (1 << BITS) - 1;
+
+    private final Node root;
+
+    private ProductTrie(Node root) {
+        this.root = root;
+    }
+
+    Product get(int id) {
+        int hash = hash(id);
+        Node node = root;
+        for (int shift = 0; ; shift += BITS) {
+            int bit = 1 << ((hash >>> shift) & MASK);
+            if ((node.bitmap & bit) == 0) {
+                return null;
+            }
+            Object entry = node.entries[node.index(bit)];
+            if (entry instanceof Node) {
+                node = (Node) entry;
+            } else {
+                Product product = (Product) entry;
+                return (product.getId() == id) ? product : null;
+            }
+        }
+    }
+
+    /**
+     * @return trie mapping the id of the product to this version
+     */
+    ProductTrie put(Product product) {
+        return new ProductTrie(root.put(product, hash(product.getId()), 0));
+    }
+
+    /**
+     * @return trie without the id; a node left with a single product is
+     * replaced by that product, so the trie stays as shallow as if the id
+     * had never been added
+     */
+    ProductTrie remove(int id) {
+        Node removed = root.remove(id, hash(id), 0);
+        return (removed == root) ? this : new ProductTrie(removed);
+    }
+
+    Stream<Product> stream() {
+        return root.stream();
+    }
+
+    private static int hash(int id) {
+        int hash = id * 0x9E3779B9;
+        return hash ^ (hash >>> 16);
+    }
+
+    private static class Node {
+        private static final Node EMPTY = new Node(0, new Object[0]);
+
+        private final int bitmap;
+        private final Object[] entries;
+
+        private Node(int bitmap, Object[] entries) {
+            this.bitmap = bitmap;
+            this.entries = entries;
+        }
+
+        private int index(int bit) {
+            return Integer.bitCount(bitmap & (bit - 1));
+        }
+
+        private Node put(Product product, int hash, int shift) {
+            int bit = 1 << ((hash >>> shift) & MASK);
+            int index = index(bit);
+            if ((bitmap & bit) == 0) {
+                Object[] copy = new Object[entries.length + 1];
+                System.arraycopy(entries, 0, copy, 0, index);
+                copy[index] = product;
+                System.arraycopy(entries, index, copy, index + 1, entries.length - index);
+                return new Node(bitmap | bit, copy);
+            }
+            Object entry = entries[index];
+            Object replacement;
+            if (entry instanceof Node) {
+                replacement = ((Node) entry).put(product, hash, shift + BITS);
+            } else if (((Product) entry).getId() == product.getId()) {
+                replacement = product;
+            } else {
+                Product other = (Product) entry;
+                replacement = EMPTY.put(other, hash(other.getId()), shift + BITS)
+                        .put(product, hash, shift + BITS);
+            }
+            Object[] copy = Arrays.copyOf(entries, entries.length);
+            copy[index] = replacement;
+            return new Node(bitmap, copy);
+        }
+
+        private Node remove(int id, int hash, int shift) {
+            int bit = 1 << ((hash >>> shift) & MASK);
+            if ((bitmap & bit) == 0) {
+                return this;
+            }
+            int index = index(bit);
+            Object entry = entries[index];
+            if (entry instanceof Node) {
+                Node child = ((Node) entry).remove(id, hash, shift + BITS);
+                if (child == entry) {
+                    return this;
+                }
+                Object[] copy = Arrays.copyOf(entries, entries.length);
+                copy[index] = (child.entries.length == 1 && !(child.entries[0] instanceof Node))
+                        ? child.entries[0] : child;
+                return new Node(bitmap, copy);
+            }
+            if (((Product) entry).getId() != id) {
+                return this;
+            }
+            Object[] copy = new Object[entries.length - 1];
+            System.arraycopy(entries, 0, copy, 0, index);
+            System.arraycopy(entries, index + 1, copy, index, copy.length - index);
+            return new Node(bitmap & ~bit, copy);
+        }
+
+        private Stream<Product> stream() {
+            return Arrays.stream(entries).flatMap(entry -> (entry instanceof Node)
+                    ? ((Node) entry).stream() : Stream.of((Product) entry));
+        }
+    }
+}
@@ -0,0 +1,92 @@
+package labs.pm.data;
+
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.Map;
+
+/**
+ * {@code RatingHistogram} is an immutable snapshot of how many reviews a
+ * product received for each {@link Rating}.
+ * <br>
+ * There is one slot per rating, so every query runs in constant time no
+ * matter how many reviews the product has. Percentiles use the nearest
+ * rank method; a product without reviews reports
+ * {@link Rateable#DEFAULT_RATING} for every statistic.
+ */
+public final class RatingHistogram {
+
+    private final int[] counts;
+    private final long total;
+
+    RatingHistogram(int[] counts) {
+        this.counts = Arrays.copyOf(counts, counts.length);
+        this.total = Arrays.stream(counts).asLongStream().sum();
+    }
+
+    public int getCount(Rating rating) {
+        return counts[rating.ordinal()];
+    }
+
+    public long getTotal() {
+        return total;
+    }
+
+    public Map<Rating, Integer> getDistribution() {
+        Map<Rating, Integer> distribution = new EnumMap<>(Rating.class);
+        for (Rating rating : Rating.values()) {
+            distribution.put(rating, counts[rating.ordinal()]);
+        }
+        return distribution;
+    }
+
+    /**
+     * @return the most frequent rating, the higher one on a tie
+     */
+    public Rating getMode() {
+        if (total == 0) {
+            return Rateable.DEFAULT_RATING;
+        }
+        int mode = 0;
+        for (int i = 1; i < counts.length; i++) {
+            if (counts[i] >= counts[mode]) {
+                mode = i;
+            }
+        }
+        return Rating.values()[mode];
+    }
+
+    /**
+     * @return the lower median rating
+     */
+    public Rating getMedian() {
+        return getPercentile(50);
+    }
+
+    /**
+     * @param percentile value from 0 to 100
+     * @return the lowest rating that at least {@code percentile} percent
+     * of the reviews are at or below
+     */
+    public Rating getPercentile(double percentile) {
+        if (percentile < 0 || percentile > 100) {
+            throw new IllegalArgumentException("Percentile " + percentile + " is not between 0 and 100");
+        }
+        if (total == 0) {
+            return Rateable.DEFAULT_RATING;
+        }
+        long rank = Math.max(1, (long) Math.ceil(percentile / 100 * total));
+        long cumulative = 0;
+        for (int i = 0; i < counts.length; i++) {
+            cumulative += counts[i];
+            if (cumulative >= rank) {
+                return Rating.values()[i];
+            }
+        }
+        return Rating.values()[counts.length - 1];
+    }
+
+    @Override
+    public String toString() {
+        return "RatingHistogram{" + getDistribution() + '}';
+    }
+}
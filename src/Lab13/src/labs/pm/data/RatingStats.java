@@ -0,0 +1,66 @@
+package labs.pm.data;
+
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * {@code RatingStats} keeps a running sum and count of review rating
+ * ordinals for a single product, so the average rating can be updated
+ * in constant time per review, together with the number of reviews per
+ * rating.
+ * <br>
+ * Updates never lock. The sum and the count are packed into one
+ * {@code long}, the sum in the high and the count in the low 32 bits, and
+ * updated with a single atomic add, so the average is always computed
+ * from a matching pair. The per rating counts are updated separately
+ * and may briefly lag behind the count.
+ */
+class RatingStats {
+
+    private static final long COUNT_MASK = 0xFFFFFFFFL;
+
+    private final AtomicLong sumAndCount = new AtomicLong();
+    private final AtomicIntegerArray counts =
+            new AtomicIntegerArray(Rating.values().length);
+
+    RatingStats(ReviewBuckets reviews) {
+        addAll(reviews);
+    }
+
+    /**
+     * Counts the reviews per bucket, without reading the reviews themselves.
+     */
+    void addAll(ReviewBuckets reviews) {
+        for (Rating rating : Rating.values()) {
+            long count = reviews.size(rating);
+            if (count > 0) {
+                sumAndCount.addAndGet(((long) rating.ordinal() << 32) * count + count);
+                counts.addAndGet(rating.ordinal(), (int) count);
+            }
+        }
+    }
+
+    void add(Rating rating) {
+        sumAndCount.addAndGet(((long) rating.ordinal() << 32) + 1);
+        counts.incrementAndGet(rating.ordinal());
+    }
+
+    RatingHistogram getHistogram() {
+        int[] snapshot = new int[counts.length()];
+        for (int i = 0; i < snapshot.length; i++) {
+            snapshot[i] = counts.get(i);
+        }
+        return new RatingHistogram(snapshot);
+    }
+
+    /**
+     * @return average rating ordinal rounded the same way as
+     * {@code Math.round(IntStream.average().orElse(0))}
+     */
+    int getRoundedAverage() {
+        long packed = sumAndCount.get();
+        long sum = packed >>> 32;
+        long count = packed & COUNT_MASK;
+        return (int)Math.round(count == 0 ? 0 : (double) sum / count);
+    }
+}
@@ -1,16 +1,29 @@
 package labs.pm.data;
 
+import java.io.IOException;
 import java.io.Serializable;
+import java.io.UncheckedIOException;
 
 public class Review implements Comparable<Review> , Serializable {
     private Rating rating;
-    private String comments;
+    private volatile String comments;
+    private transient ReviewSpill spill;
+    private transient long spillOffset;
 
     public Review(Rating rating, String comments) {
         this.rating = rating;
         this.comments = comments;
     }
 
+    /**
+     * Restores a review whose comments are already in the spill segment.
+     */
+    Review(Rating rating, ReviewSpill spill, long spillOffset) {
+        this.rating = rating;
+        this.spill = spill;
+        this.spillOffset = spillOffset;
+    }
+
     @Override
     public int compareTo(Review other) {
         return other.rating.ordinal() - this.rating.ordinal();
@@ -21,11 +34,43 @@ public class Review implements Comparable<Review> , Serializable {
     }
 
     public String getComments() {
-        return comments;
+        String text = comments;
+        if (text == null && spill != null) {
+            try {
+                text = spill.read(spillOffset);
+            } catch (IOException ex) {
+                throw new UncheckedIOException(ex);
+            }
+        }
+        return text;
+    }
+
+    /**
+     * Moves the comments to the spill segment; {@link #getComments()}
+     * reads them back from there.
+     */
+    void spillTo(ReviewSpill spill) throws IOException {
+        if (comments != null) {
+            spillOffset = spill.write(comments);
+            this.spill = spill;
+            comments = null;
+        }
+    }
+
+    boolean isSpilled() {
+        return spill != null;
+    }
+
+    long getSpillOffset() {
+        return spillOffset;
+    }
+
+    private Object writeReplace() {
+        return (spill != null) ? new Review(rating, getComments()) : this;
     }
 
     @Override
     public String toString() {
-        return "Review{"+"rating="+rating+", comments="+comments + '}';
+        return "Review{"+"rating="+rating+", comments="+getComments() + '}';
     }
 }
@@ -0,0 +1,43 @@
+package labs.pm.data;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * {@code ReviewBatchResult} reports the outcome of
+ * {@link ProductManager#reviewProducts(java.util.Collection)}.
+ * <br>
+ * It holds the updated version of every product that received reviews,
+ * in the order the products first appear in the batch, and the reason
+ * each rejected item failed, keyed by its position in the batch.
+ */
+public final class ReviewBatchResult {
+
+    private final List<Product> products;
+    private final Map<Integer, ProductManagerException> failures;
+
+    ReviewBatchResult(List<Product> products,
+                      Map<Integer, ProductManagerException> failures) {
+        this.products = List.copyOf(products);
+        this.failures = Collections.unmodifiableMap(new LinkedHashMap<>(failures));
+    }
+
+    public List<Product> getProducts() {
+        return products;
+    }
+
+    public Map<Integer, ProductManagerException> getFailures() {
+        return failures;
+    }
+
+    public boolean hasFailures() {
+        return !failures.isEmpty();
+    }
+
+    @Override
+    public String toString() {
+        return "ReviewBatchResult{products="+products.size()+", failures="+failures.size()+'}';
+    }
+}
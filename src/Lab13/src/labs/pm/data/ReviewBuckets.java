@@ -0,0 +1,243 @@
+package labs.pm.data;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+import java.util.stream.IntStream;
+
+/**
+ * {@code ReviewBuckets} stores the reviews of a product in one bucket per
+ * {@link Rating}, so the list is always in report order: highest rating
+ * first, as defined by {@link Review#compareTo(Review)}, and insertion
+ * order within a rating.
+ * <br>
+ * Reviews can only be appended; the list never needs sorting. Each bucket
+ * is an {@link AppendOnlyArray}, so threads append to the same product
+ * without locking; a review whose append is still in progress is skipped
+ * by iteration and reads as {@code null} through the index methods.
+ * <br>
+ * With an {@link OffHeapReviewStore} the buckets only hold the addresses
+ * of the stored reviews, and every read creates a new {@link Review}.
+ * <br>
+ * The buckets also track, oldest first, the reviews whose comments are
+ * still held in memory, so the oldest comments can be spilled to disk
+ * when the product exceeds its memory budget. Spilled comments stay in
+ * the spill segment when the reviews are written to and read back from
+ * the review tier.
+ */
+class ReviewBuckets extends AbstractList<Review> {
+
+    private OffHeapReviewStore store;
+    private List<AppendOnlyArray<Review>> buckets;
+    private List<AppendOnlyLongArray> addresses;
+    private Queue<Review> retained;
+    private AtomicLong retainedBytes;
+    private AtomicBoolean spilling;
+
+    ReviewBuckets() {
+        this(null);
+    }
+
+    /**
+     * @param store off-heap store of the reviews, or {@code null} to keep
+     * them on the heap
+     */
+    ReviewBuckets(OffHeapReviewStore store) {
+        init(store);
+    }
+
+    private void init(OffHeapReviewStore store) {
+        this.store = store;
+        buckets = new ArrayList<>();
+        addresses = new ArrayList<>();
+        for (int i = 0; i < Rating.values().length; i++) {
+            if (store == null) {
+                buckets.add(new AppendOnlyArray<>());
+            } else {
+                addresses.add(new AppendOnlyLongArray());
+            }
+        }
+        retained = new ConcurrentLinkedQueue<>();
+        retainedBytes = new AtomicLong();
+        spilling = new AtomicBoolean();
+    }
+
+    @Override
+    public boolean add(Review review) {
+        append(review);
+        return true;
+    }
+
+    /**
+     * @return position of the review within its rating bucket
+     */
+    int append(Review review) {
+        int rating = review.getRating().ordinal();
+        if (store != null) {
+            return addresses.get(rating).append(store.add(review));
+        }
+        int index = buckets.get(rating).append(review);
+        retain(review);
+        return index;
+    }
+
+    /**
+     * @return estimated heap size of the comments still held in memory
+     */
+    long getRetainedBytes() {
+        return retainedBytes.get();
+    }
+
+    /**
+     * Spills the oldest comments held in memory until they fit into
+     * {@code budget} bytes; returns at once if another thread is already
+     * spilling these reviews.
+     */
+    void spill(long budget, ReviewSpill spill) throws IOException {
+        if (!spilling.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            Review review;
+            while (retainedBytes.get() > budget && (review = retained.peek()) != null) {
+                long bytes = estimateBytes(review.getComments());
+                review.spillTo(spill);
+                retained.poll();
+                retainedBytes.addAndGet(-bytes);
+            }
+        } finally {
+            spilling.set(false);
+        }
+    }
+
+    @Override
+    public Review get(int index) {
+        Objects.checkIndex(index, size());
+        Rating[] ratings = Rating.values();
+        for (int i = ratings.length - 1; ; i--) {
+            int size = size(ratings[i]);
+            if (index < size) {
+                return get(ratings[i], index);
+            }
+            index -= size;
+        }
+    }
+
+    @Override
+    public int size() {
+        int size = 0;
+        for (Rating rating : Rating.values()) {
+            size += size(rating);
+        }
+        return size;
+    }
+
+    @Override
+    public Iterator<Review> iterator() {
+        Rating[] ratings = Rating.values();
+        return IntStream.range(0, ratings.length)
+                .mapToObj(i -> ratings[ratings.length - 1 - i])
+                .flatMap(rating -> IntStream.range(0, size(rating))
+                        .mapToObj(index -> get(rating, index)))
+                .filter(Objects::nonNull)
+                .iterator();
+    }
+
+    Review get(Rating rating, int index) {
+        if (store == null) {
+            return buckets.get(rating.ordinal()).get(index);
+        }
+        long address = addresses.get(rating.ordinal()).get(index);
+        return (address == AppendOnlyLongArray.EMPTY) ? null : store.get(address);
+    }
+
+    /**
+     * @return comments of the review, read without creating a
+     * {@link Review} when the reviews are stored off the heap
+     */
+    String getComments(Rating rating, int index) {
+        if (store == null) {
+            Review review = buckets.get(rating.ordinal()).get(index);
+            return (review == null) ? null : review.getComments();
+        }
+        long address = addresses.get(rating.ordinal()).get(index);
+        return (address == AppendOnlyLongArray.EMPTY) ? null : store.getComments(address);
+    }
+
+    int size(Rating rating) {
+        return (store == null) ? buckets.get(rating.ordinal()).size()
+                : addresses.get(rating.ordinal()).size();
+    }
+
+    /**
+     * Writes the reviews in report order for the review tier; spilled
+     * comments are written as their offset in the spill segment.
+     */
+    void writeTo(DataOutput out) throws IOException {
+        for (Review review : this) {
+            out.writeByte(review.getRating().ordinal());
+            out.writeBoolean(review.isSpilled());
+            if (review.isSpilled()) {
+                out.writeLong(review.getSpillOffset());
+            } else {
+                writeText(out, review.getComments());
+            }
+        }
+        out.writeByte(-1);
+    }
+
+    /**
+     * Reads reviews written by {@link #writeTo(DataOutput)}; only comments
+     * read as text count against the memory budget again.
+     *
+     * @param spill spill segment of the spilled comments, only asked for
+     * when the reviews contain one
+     */
+    static ReviewBuckets readFrom(DataInput in, Supplier<ReviewSpill> spill) throws IOException {
+        ReviewBuckets reviews = new ReviewBuckets();
+        Rating[] ratings = Rating.values();
+        for (int rating = in.readByte(); rating >= 0; rating = in.readByte()) {
+            reviews.add(in.readBoolean()
+                    ? new Review(ratings[rating], spill.get(), in.readLong())
+                    : new Review(ratings[rating], readText(in)));
+        }
+        return reviews;
+    }
+
+    private void retain(Review review) {
+        if (!review.isSpilled()) {
+            retainedBytes.addAndGet(estimateBytes(review.getComments()));
+            retained.add(review);
+        }
+    }
+
+    private static void writeText(DataOutput out, String text) throws IOException {
+        if (text == null) {
+            out.writeInt(-1);
+        } else {
+            byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+            out.writeInt(bytes.length);
+            out.write(bytes);
+        }
+    }
+
+    private static String readText(DataInput in) throws IOException {
+        int length = in.readInt();
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static long estimateBytes(String comments) {
+        return (comments == null) ? 0 : 2L * comments.length();
+    }
+}
@@ -0,0 +1,141 @@
+package labs.pm.data;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * {@code ReviewIndex} is an inverted index from lower-cased comment terms
+ * to the reviews that contain them.
+ * <br>
+ * A posting is a {@code long} packing the product id, the review rating
+ * and the review position within its rating bucket, so the index holds
+ * no references to {@link Review} objects and does not keep spilled or
+ * evicted reviews in memory. Postings of a term are kept in the order
+ * reviews were indexed.
+ * <br>
+ * Postings of a term are an {@link AppendOnlyLongArray}, so neither
+ * appends nor searches lock; a search skips postings whose append is
+ * still in progress.
+ */
+class ReviewIndex {
+
+    private static final int INDEX_BITS = 29;
+    private static final int INDEX_MASK = (1 << INDEX_BITS) - 1;
+    private static final AppendOnlyLongArray NO_POSTINGS = new AppendOnlyLongArray();
+
+    private final Map<String, AppendOnlyLongArray> postings = new ConcurrentHashMap<>();
+
+    static long posting(int productId, Rating rating, int index) {
+        return ((long) productId << 32) | ((long) rating.ordinal() << INDEX_BITS) | index;
+    }
+
+    static int productId(long posting) {
+        return (int) (posting >>> 32);
+    }
+
+    static Rating rating(long posting) {
+        return Rating.values()[(int) (posting >>> INDEX_BITS) & 0x7];
+    }
+
+    static int index(long posting) {
+        return (int) posting & INDEX_MASK;
+    }
+
+    void add(long posting, String comments) {
+        for (String term : tokenize(comments)) {
+            postings.computeIfAbsent(term, t -> new AppendOnlyLongArray()).append(posting);
+        }
+    }
+
+    /**
+     * Intersects the postings of the query terms: the shortest list is
+     * walked in indexing order and every posting is looked up in sorted
+     * copies of the others, so no review is read.
+     *
+     * @return up to {@code limit} postings of reviews containing every
+     * term of the query, in indexing order
+     */
+    long[] searchAll(String query, int limit) {
+        Set<String> terms = tokenize(query);
+        if (terms.isEmpty()) {
+            return new long[0];
+        }
+        List<long[]> lists = new ArrayList<>(terms.size());
+        for (String term : terms) {
+            lists.add(postings.getOrDefault(term, NO_POSTINGS).toArray());
+        }
+        lists.sort(Comparator.comparingInt(list -> list.length));
+        long[] shortest = lists.get(0);
+        for (int i = 1; i < lists.size(); i++) {
+            Arrays.sort(lists.get(i));
+        }
+        long[] result = new long[Math.max(0, Math.min(limit, shortest.length))];
+        int count = 0;
+        for (int i = 0; i < shortest.length && count < result.length; i++) {
+            long posting = shortest[i];
+            if (containsAll(lists, posting)) {
+                result[count++] = posting;
+            }
+        }
+        return Arrays.copyOf(result, count);
+    }
+
+    private static boolean containsAll(List<long[]> sorted, long posting) {
+        for (int i = 1; i < sorted.size(); i++) {
+            if (Arrays.binarySearch(sorted.get(i), posting) < 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return up to {@code limit} postings of reviews containing at least
+     * one term of the query, the ones matching most terms first
+     */
+    long[] searchAny(String query, int limit) {
+        Map<Long, Hit> hits = new HashMap<>();
+        List<Hit> ranked = new ArrayList<>();
+        for (String term : tokenize(query)) {
+            for (long posting : postings.getOrDefault(term, NO_POSTINGS).toArray()) {
+                Hit hit = hits.get(posting);
+                if (hit == null) {
+                    hit = new Hit(posting, ranked.size());
+                    hits.put(posting, hit);
+                    ranked.add(hit);
+                }
+                hit.score++;
+            }
+        }
+        ranked.sort(Comparator.comparingInt((Hit hit) -> -hit.score)
+                .thenComparingInt(hit -> hit.order));
+        long[] result = new long[Math.max(0, Math.min(limit, ranked.size()))];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = ranked.get(i).posting;
+        }
+        return result;
+    }
+
+    static Set<String> tokenize(String text) {
+        Set<String> terms = new LinkedHashSet<>();
+        if (text != null) {
+            for (String term : text.toLowerCase(Locale.ROOT).split("[^\\p{L}\\p{N}]+")) {
+                if (!term.isEmpty()) {
+                    terms.add(term);
+                }
+            }
+        }
+        return terms;
+    }
+
+    private static class Hit {
+        private final long posting;
+        private final int order;
+        private int score;
+
+        private Hit(long posting, int order) {
+            this.posting = posting;
+            this.order = order;
+        }
+    }
+}
@@ -0,0 +1,65 @@
+package labs.pm.data;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+
+import static java.nio.file.StandardOpenOption.*;
+
+/**
+ * {@code ReviewSpill} is an append-only file segment holding review
+ * comments that no longer fit into the memory budget.
+ * <br>
+ * Each entry is an {@code int} length followed by UTF-8 bytes and is
+ * addressed by its file offset. The segment only lives as long as the
+ * process: it is truncated when opened and deleted when closed.
+ */
+class ReviewSpill implements Closeable {
+
+    private final FileChannel channel;
+    private long size;
+
+    ReviewSpill(Path file) throws IOException {
+        channel = FileChannel.open(file, CREATE, TRUNCATE_EXISTING, READ, WRITE, DELETE_ON_CLOSE);
+    }
+
+    /**
+     * @return offset of the written entry
+     */
+    synchronized long write(String text) throws IOException {
+        byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+        ByteBuffer buffer = ByteBuffer.allocate(Integer.BYTES + bytes.length);
+        buffer.putInt(bytes.length).put(bytes).flip();
+        long offset = size;
+        while (buffer.hasRemaining()) {
+            size += channel.write(buffer, size);
+        }
+        return offset;
+    }
+
+    String read(long offset) throws IOException {
+        ByteBuffer length = ByteBuffer.allocate(Integer.BYTES);
+        readFully(length, offset);
+        ByteBuffer bytes = ByteBuffer.allocate(length.flip().getInt());
+        readFully(bytes, offset + Integer.BYTES);
+        return new String(bytes.array(), StandardCharsets.UTF_8);
+    }
+
+    private void readFully(ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position);
+            if (read < 0) {
+                throw new IOException("Unexpected end of review spill at " + position);
+            }
+            position += read;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
@@ -0,0 +1,227 @@
+package labs.pm.data;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.text.MessageFormat;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * {@code ReviewTier} keeps the review lists of the most recently used
+ * products in memory and evicts the others to one file per product.
+ * <br>
+ * Products are ordered from least to most recently used. Once more than
+ * {@code capacity} review lists are resident, the least recently used
+ * one is written to disk, unless the file is already up to date, and
+ * dropped from its handle. The next access reads it back.
+ * <br>
+ * Handles are registered as soon as their reviews are in memory, when
+ * they are created or lazily loaded, so products nobody touches are
+ * evicted as well.
+ * <br>
+ * Each product has its own read-write lock: reads and appends share the
+ * read lock, so they never wait for each other, while reading back and
+ * evicting take the write lock of that product only. The lock of the
+ * usage order is held for bookkeeping alone, never for disk I/O. Each
+ * tier writes into a folder of its own, so the tier of a new catalog
+ * never overwrites the files of the previous one.
+ * <br>
+ * Comments already spilled to the {@link ReviewSpill} are written as
+ * their spill offset, so evicting and reading back a product neither
+ * brings them back into memory nor spills them again.
+ */
+class ReviewTier {
+
+    private static final Logger logger =
+            Logger.getLogger(ReviewTier.class.getName());
+
+    private final int capacity;
+    private final Path folder;
+    private final String fileFormat;
+    private final Supplier<ReviewSpill> spill;
+    private final Map<ProductHandle, Entry> entries = new ConcurrentHashMap<>();
+    // guarded by itself
+    private final Set<ProductHandle> resident =
+            Collections.newSetFromMap(new LinkedHashMap<>(16, 0.75f, true));
+
+    /**
+     * @param spill spill segment of the spilled comments of the products
+     */
+    ReviewTier(int capacity, Path folder, String fileFormat, Supplier<ReviewSpill> spill) {
+        this.capacity = capacity;
+        this.folder = folder.resolve("tier-" + UUID.randomUUID());
+        this.fileFormat = fileFormat;
+        this.spill = spill;
+    }
+
+    /**
+     * @return resident reviews of the product, read back from disk
+     * when they were evicted
+     */
+    ReviewBuckets access(ProductHandle handle) {
+        Lock lock = entry(handle).lock.readLock();
+        ReviewBuckets reviews;
+        lock.lock();
+        try {
+            reviews = resident(handle);
+        } finally {
+            lock.unlock();
+        }
+        touch(handle, handle);
+        return reviews;
+    }
+
+    /**
+     * Tracks a product whose reviews are already in memory as the most
+     * recently used one and evicts down to capacity.
+     */
+    void register(ProductHandle handle) {
+        if (handle.residentReviews() != null) {
+            touch(handle, null);
+        }
+    }
+
+    /**
+     * @return reviews of the product without making them resident
+     */
+    ReviewBuckets peek(ProductHandle handle) {
+        Lock lock = entry(handle).lock.readLock();
+        lock.lock();
+        try {
+            ReviewBuckets reviews = handle.residentReviews();
+            return (reviews != null) ? reviews : read(handle);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Applies a change to the resident reviews of the product while no
+     * other thread can evict them, and marks their file out of date.
+     * Changes to the same product run concurrently.
+     */
+    void update(ProductHandle handle, Consumer<ReviewBuckets> update) {
+        Entry entry = entry(handle);
+        Lock lock = entry.lock.readLock();
+        lock.lock();
+        try {
+            update.accept(resident(handle));
+            entry.clean = false;
+        } finally {
+            lock.unlock();
+        }
+        touch(handle, handle);
+    }
+
+    /**
+     * Reads the reviews back when they were evicted; the caller holds the
+     * read lock of the product, which is briefly traded for the write lock.
+     */
+    private ReviewBuckets resident(ProductHandle handle) {
+        ReviewBuckets reviews = handle.residentReviews();
+        if (reviews == null) {
+            Entry entry = entry(handle);
+            entry.lock.readLock().unlock();
+            entry.lock.writeLock().lock();
+            try {
+                reviews = handle.residentReviews();
+                if (reviews == null) {
+                    reviews = read(handle);
+                    handle.setResidentReviews(reviews);
+                    entry.clean = true;
+                }
+            } finally {
+                entry.lock.readLock().lock();
+                entry.lock.writeLock().unlock();
+            }
+        }
+        return reviews;
+    }
+
+    /**
+     * Marks the product as the most recently used one and evicts the
+     * least recently used others, except {@code current}, down to capacity.
+     */
+    private void touch(ProductHandle handle, ProductHandle current) {
+        List<ProductHandle> evicted = null;
+        synchronized (resident) {
+            resident.add(handle);
+            Iterator<ProductHandle> eldest = resident.iterator();
+            while (resident.size() > capacity && eldest.hasNext()) {
+                ProductHandle next = eldest.next();
+                if (next != current) {
+                    eldest.remove();
+                    if (evicted == null) {
+                        evicted = new ArrayList<>();
+                    }
+                    evicted.add(next);
+                }
+            }
+        }
+        if (evicted != null) {
+            evicted.forEach(this::evict);
+        }
+    }
+
+    private void evict(ProductHandle handle) {
+        Entry entry = entry(handle);
+        entry.lock.writeLock().lock();
+        try {
+            ReviewBuckets reviews = handle.residentReviews();
+            if (reviews != null) {
+                if (!entry.clean) {
+                    write(handle, reviews);
+                    entry.clean = true;
+                }
+                handle.setResidentReviews(null);
+            }
+        } catch (IOException ex) {
+            logger.log(Level.WARNING, "Error evicting reviews "+ex.getMessage(), ex);
+            synchronized (resident) {
+                resident.add(handle);
+            }
+        } finally {
+            entry.lock.writeLock().unlock();
+        }
+    }
+
+    private Entry entry(ProductHandle handle) {
+        Entry entry = entries.get(handle);
+        return (entry != null) ? entry : entries.computeIfAbsent(handle, h -> new Entry());
+    }
+
+    private void write(ProductHandle handle, ReviewBuckets reviews) throws IOException {
+        Files.createDirectories(folder);
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(Files.newOutputStream(file(handle))))) {
+            reviews.writeTo(out);
+        }
+    }
+
+    private ReviewBuckets read(ProductHandle handle) {
+        try (DataInputStream in = new DataInputStream(
+                new BufferedInputStream(Files.newInputStream(file(handle))))) {
+            return ReviewBuckets.readFrom(in, spill);
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+
+    private Path file(ProductHandle handle) {
+        return folder.resolve(MessageFormat.format(fileFormat, handle.getId()));
+    }
+
+    private static final class Entry {
+        private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+        // written under the lock: false by appends holding the read lock,
+        // true by reads and evictions holding the write lock
+        private volatile boolean clean;
+    }
+}
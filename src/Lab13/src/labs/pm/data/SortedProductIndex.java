@@ -0,0 +1,60 @@
+package labs.pm.data;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/**
+ * {@code SortedProductIndex} keeps product handles ordered by a comparable
+ * key, so range queries walk only the matching part of the catalog.
+ * <br>
+ * Handles sharing a key are kept in one bucket. The key must not change
+ * between product versions, so rating updates leave the index untouched.
+ * <br>
+ * The index is safe for concurrent use; range queries never lock and are
+ * weakly consistent with concurrent additions.
+ */
+class SortedProductIndex<K extends Comparable<? super K>> {
+
+    private final NavigableMap<K, Set<ProductHandle>> buckets = new ConcurrentSkipListMap<>();
+
+    void add(K key, ProductHandle handle) {
+        buckets.computeIfAbsent(key, k -> ConcurrentHashMap.newKeySet()).add(handle);
+    }
+
+    /**
+     * @return products with keys from {@code from} (inclusive) to
+     * {@code to} (exclusive) in key order
+     */
+    List<Product> range(K from, K to) {
+        return range(from, true, to, false);
+    }
+
+    List<Product> range(K from, boolean fromInclusive, K to, boolean toInclusive) {
+        return collect(buckets.subMap(from, fromInclusive, to, toInclusive), Integer.MAX_VALUE);
+    }
+
+    /**
+     * @return at most {@code limit} products with keys from {@code from}
+     * (inclusive) and below {@code to}, or up to the last key when
+     * {@code to} is {@code null}
+     */
+    List<Product> range(K from, K to, int limit) {
+        return collect((to == null)
+                ? buckets.tailMap(from, true)
+                : buckets.subMap(from, true, to, false), limit);
+    }
+
+    private static List<Product> collect(Map<?, Set<ProductHandle>> range, int limit) {
+        List<Product> result = new ArrayList<>();
+        for (Set<ProductHandle> bucket : range.values()) {
+            for (ProductHandle handle : bucket) {
+                if (result.size() >= limit) {
+                    return result;
+                }
+                result.add(handle.getProduct());
+            }
+        }
+        return result;
+    }
+}
@@ -0,0 +1,79 @@
+package labs.pm.data;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * {@code StringPool} deduplicates strings that recur across products and
+ * reviews, such as product names and short review comments.
+ * <br>
+ * The pool is safe for concurrent use and bounded: once it holds
+ * {@code capacity} strings, new values are returned as they are and
+ * only values already pooled are deduplicated.
+ */
+public class StringPool {
+
+    private final Map<String, String> pool = new ConcurrentHashMap<>();
+    private final int capacity;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder savedChars = new LongAdder();
+
+    public StringPool(int capacity) {
+        this.capacity = capacity;
+    }
+
+    public String intern(String value) {
+        if (value == null) {
+            return null;
+        }
+        String pooled = pool.get(value);
+        if (pooled == null) {
+            misses.increment();
+            if (pool.size() < capacity) {
+                pooled = pool.putIfAbsent(value, value);
+            }
+            return (pooled == null) ? value : pooled;
+        }
+        hits.increment();
+        savedChars.add(value.length());
+        return pooled;
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    public int getSize() {
+        return pool.size();
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    public double getHitRate() {
+        long hits = getHits();
+        long total = hits + getMisses();
+        return (total == 0) ? 0 : (double) hits / total;
+    }
+
+    /**
+     * @return total length of the duplicate strings that were replaced
+     * by a pooled instance
+     */
+    public long getSavedChars() {
+        return savedChars.sum();
+    }
+
+    @Override
+    public String toString() {
+        return "StringPool{size=" + getSize() + ", hits=" + getHits()
+                + ", misses=" + getMisses() + ", savedChars=" + getSavedChars() + '}';
+    }
+}